@@ -34,6 +34,10 @@ public final class Constants {
 
     public static final String DATA_DIR = "data";
     public static final String PROFILE_PICTURE_DIR = DATA_DIR + SEPARATOR + "photos" + SEPARATOR + "profiles";
+    public static final int PROFILE_CACHE_SECONDS = 300;
+    public static final String PROFILE_MODEL_FILE = DATA_DIR + SEPARATOR + "models" + SEPARATOR + "fisherfaces_person.yml";
+    public static final String MODEL_MANIFEST_SUFFIX = ".manifest";
+    public static final int PROFILE_MODEL_CHECK_SECONDS = 60;
 
     public static final String FISHERFACES_GENDER_MODEL = "detection" + SEPARATOR + "fisherfaces_gender.model";
 
@@ -48,10 +52,43 @@ public final class Constants {
         public static final String VIDEO_NAME_PREFIX = "video";
         public static final String VIDEO_EXTENSION = "mkv";
 
+        public static final String DEFAULT_VIDEO_SOURCE = "/dev/video0";
+        public static final String VIDEO_SOURCE_FORMAT = "video4linux2";
+        public static final String FEED_NAME_PREFIX = "feed";
+
         public static final int VIDEO_WIDTH = 1280;
         public static final int VIDEO_HEIGHT = 720;
 
         public static final int RECORDING_FRAME_THRESHOLD = 50;
+        public static final int SEGMENT_DURATION_SECONDS = 300;
+        public static final long SEGMENT_MAX_BYTES = 512 * 1024 * 1024;
+        public static final long SEGMENT_RETRY_MILLIS = 1000;
+        public static final long SEGMENT_RETRY_MAX_MILLIS = 60000;
+        public static final int PRE_ROLL_FRAMES = 50;
+        public static final long PRE_ROLL_MAX_BYTES = 16 * 1024 * 1024;
+        public static final int PRE_ROLL_JPEG_QUALITY = 90;
+        public static final int MAX_CATCH_UP_FRAMES = 5;
+        public static final int FRAME_POOL_SIZE = 16;
+        public static final int FRAME_RING_CAPACITY = 4;
+        public static final int FRAME_LISTENER_BLOCK_TIMEOUT_MILLIS = 200;
+        public static final int FRAME_CHANNELS = 3;
+        public static final double DETECTION_SCALE = 1.0;
+        public static final double TRACK_MIN_OVERLAP = 0.3;
+        public static final int TRACK_MAX_MISSED_FRAMES = 10;
+        public static final int TRACK_RECHECK_FRAMES = 50;
+        public static final int DETECTION_THREADS = 2;
+        public static final int PIPELINE_QUEUE_CAPACITY = 8;
+        public static final int CHUNK_WORKERS = 1;
+        public static final int CHUNK_MIN_DURATION_SECONDS = 120;
+        public static final String PART_FILE_SUFFIX = ".part";
+        public static final String CHECKPOINT_FILE_SUFFIX = ".checkpoint";
+        public static final int CHECKPOINT_INTERVAL_SECONDS = 300;
+        public static final String OVERLAY_FILE_SUFFIX = ".overlays";
+        public static final int VIDEO_LEASE_SECONDS = 120;
+        public static final int VIDEO_MAX_ATTEMPTS = 3;
+        public static final long VIDEO_WATCH_SETTLE_MILLIS = 1000;
+        public static final int CNN_MAX_BATCH_SIZE = 16;
+        public static final long CNN_BATCH_MAX_WAIT_MILLIS = 0;
 
         public static final String PROCESSES_VIDEO_DIR = "processed";
 
@@ -60,4 +97,18 @@ public final class Constants {
         public static final String DATETIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
 
     }
+
+    public static final class MotionConstants {
+        public static final int MOTION_FRAME_WIDTH = 320;
+        public static final int MOTION_BLUR_SIZE = 5;
+        public static final int MOTION_PIXEL_THRESHOLD = 25;
+        public static final double MOTION_MIN_AREA_RATIO = 0.002;
+        public static final double MOTION_BACKGROUND_LEARNING_RATE = 0.05;
+        public static final double MOTION_REGION_MARGIN = 0.25;
+        /**
+         * Frames without motion after which the whole frame is searched anyway, since people who keep still fade in to
+         * the background. Not more than the frames a face track survives without its face
+         */
+        public static final int MOTION_FULL_SCAN_FRAMES = 10;
+    }
 }
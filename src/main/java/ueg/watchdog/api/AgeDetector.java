@@ -21,10 +21,6 @@
  */
 package ueg.watchdog.api;
 
-import java.util.Map;
-
-import static org.bytedeco.javacpp.opencv_core.Mat;
-
 /**
  * Interface for age face implementations
  *
@@ -32,5 +28,35 @@ import static org.bytedeco.javacpp.opencv_core.Mat;
  */
 public interface AgeDetector {
 
-    Map<Mat, String> predictAge(FrameData frameData);
+    /**
+     * Age groups the ages are given in
+     */
+    String[] AGE_GROUPS = new String[]{"0-2", "4-6", "8-13", "15-20", "25-32", "38-43", "48-53", "60-"};
+    int[] AGE_GROUP_LIMITS = new int[]{0, 2, 4, 6, 8, 13, 15, 20, 25, 32, 38, 43, 48, 53, 60, Integer.MAX_VALUE};
+
+    /**
+     * @param years age in years
+     * @return the age group of the age, or of the closest one for the ages between the groups
+     */
+    static String toAgeGroup(int years) {
+        int closest = 0;
+        int closestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < AGE_GROUPS.length; i++) {
+            int from = AGE_GROUP_LIMITS[2 * i];
+            int to = AGE_GROUP_LIMITS[2 * i + 1];
+            int distance = years < from ? from - years : years > to ? years - to : 0;
+            if (distance < closestDistance) {
+                closest = i;
+                closestDistance = distance;
+            }
+        }
+        return AGE_GROUPS[closest];
+    }
+
+    /**
+     * Predicts the age group of the given faces
+     *
+     * @param faces faces of a frame, each given its predicted age group
+     */
+    void predictAge(FaceAnalysis[] faces);
 }
@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.api;
+
+import org.bytedeco.javacpp.opencv_core.CvRect;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import ueg.watchdog.api.GenderDetector.Gender;
+import ueg.watchdog.model.Profile;
+
+/**
+ * Results of the analysis of a single face of a frame. The classifiers are given the faces of a frame as an array of
+ * these, and each fills in its own results.
+ * <p>
+ * An instance can be reused for a face of the next frame with {@link #reset(CvRect, Mat)}, keeping the buffers of its
+ * {@link PreparedFace}.
+ *
+ * @author Erandi Ganepola
+ */
+public class FaceAnalysis {
+
+    /**
+     * Confidence of the gender and age taken from the profile of a recognized person, rather than detected
+     */
+    public static final double PROFILE_CONFIDENCE = 1.0;
+
+    private CvRect rect;
+    private final PreparedFace face = new PreparedFace(null);
+    private Gender gender;
+    private double genderConfidence;
+    private String age;
+    private double ageConfidence;
+    private Profile profile;
+    private double recognitionConfidence;
+
+    public FaceAnalysis(CvRect rect, Mat face) {
+        reset(rect, face);
+    }
+
+    /**
+     * Starts over with another face, clearing the results
+     */
+    public FaceAnalysis reset(CvRect rect, Mat face) {
+        this.rect = rect;
+        this.face.reset(face);
+        gender = null;
+        genderConfidence = 0;
+        age = null;
+        ageConfidence = 0;
+        profile = null;
+        recognitionConfidence = 0;
+        return this;
+    }
+
+    public CvRect getRect() {
+        return rect;
+    }
+
+    public PreparedFace getFace() {
+        return face;
+    }
+
+    public Gender getGender() {
+        return gender;
+    }
+
+    public double getGenderConfidence() {
+        return genderConfidence;
+    }
+
+    public void setGender(Gender gender, double confidence) {
+        this.gender = gender;
+        this.genderConfidence = confidence;
+    }
+
+    public String getAge() {
+        return age;
+    }
+
+    public double getAgeConfidence() {
+        return ageConfidence;
+    }
+
+    public void setAge(String age, double confidence) {
+        this.age = age;
+        this.ageConfidence = confidence;
+    }
+
+    /**
+     * @return recognized profile, or null if the face is not recognized
+     */
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return id of the recognized profile, or -1 if the face is not recognized
+     */
+    public int getProfileId() {
+        return profile != null ? profile.getId() : -1;
+    }
+
+    public double getRecognitionConfidence() {
+        return recognitionConfidence;
+    }
+
+    public void setProfile(Profile profile, double confidence) {
+        this.profile = profile;
+        this.recognitionConfidence = confidence;
+    }
+}
@@ -21,9 +21,19 @@
  */
 package ueg.watchdog.api;
 
+import org.bytedeco.javacpp.opencv_core;
 import org.bytedeco.javacv.Frame;
 
 public interface FaceDetector {
 
     FrameData detect(Frame frame);
+
+    /**
+     * Detects faces only within the given region of the frame. Detected faces are still in frame coordinates.
+     *
+     * @param frame  frame to be searched
+     * @param region region of the frame to be searched. Whole frame if null
+     * @return detected faces
+     */
+    FrameData detect(Frame frame, opencv_core.Rect region);
 }
@@ -0,0 +1,51 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.api;
+
+import org.bytedeco.javacv.Frame;
+
+/**
+ * A reference counted frame, shared between all the parties interested in a captured frame. The frame stays valid
+ * while at least one reference is held. Once the last reference is released, the underlying buffer is reused for
+ * another frame.
+ *
+ * @author Erandi Ganepola
+ */
+public interface FrameBuffer {
+
+    /**
+     * @return the frame held by this buffer. Must not be modified, since it is shared
+     */
+    Frame getFrame();
+
+    /**
+     * Acquires a new reference to this buffer. Every retain must be followed by a {@link #release()}.
+     *
+     * @return this buffer
+     */
+    FrameBuffer retain();
+
+    /**
+     * Releases a reference acquired by {@link #retain()} or by the creator of the buffer.
+     */
+    void release();
+}
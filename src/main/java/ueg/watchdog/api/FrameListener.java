@@ -1,8 +1,6 @@
 
 package ueg.watchdog.api;
 
-import org.bytedeco.javacv.Frame;
-
 /**
  * All the listeners interested in receiving about the frames being grabbed in the runtime should implement this interface
  * and register in the corresponding frame manager
@@ -11,5 +9,51 @@ import org.bytedeco.javacv.Frame;
  */
 public interface FrameListener {
 
-    void frameAdded(Frame frame, long timestamp);
+    /**
+     * Called for every frame added to the frame manager. The frame buffer is only guaranteed to be valid until this
+     * method returns. A listener processing the frame asynchronously must {@link FrameBuffer#retain()} it and
+     * {@link FrameBuffer#release()} it once done.
+     *
+     * @param frameBuffer buffer holding the added frame
+     * @param timestamp   timestamp of the frame in microseconds
+     */
+    void frameAdded(FrameBuffer frameBuffer, long timestamp);
+
+    /**
+     * Every listener is fed on its own thread. This policy decides what happens when the listener is slower than
+     * the frame rate.
+     *
+     * @return backpressure policy of this listener
+     */
+    default BackpressurePolicy getBackpressurePolicy() {
+        return BackpressurePolicy.BLOCK;
+    }
+
+    /**
+     * Maximum time the frame capturing waits for this listener when it has the {@link BackpressurePolicy#BLOCK}
+     * policy, before marking it as stalled.
+     *
+     * @return the timeout in milliseconds, 0 to wait for ever, or a negative value for the block timeout of the frame
+     * manager
+     */
+    default long getBlockTimeoutMillis() {
+        return -1;
+    }
+
+    enum BackpressurePolicy {
+        /**
+         * Frame capturing waits for the listener when the frame queue is full, up to the block timeout of the listener.
+         * A listener which doesn't catch up by then is marked as stalled, and its frames are dropped until it catches
+         * up. Frames are never skipped otherwise
+         */
+        BLOCK,
+        /**
+         * When the frame queue is full, the oldest frames are skipped
+         */
+        DROP_OLDEST,
+        /**
+         * Always skip to the latest frame
+         */
+        LATEST_ONLY
+    }
 }
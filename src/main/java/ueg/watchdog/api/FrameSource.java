@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.api;
+
+import org.bytedeco.javacv.Frame;
+
+import java.io.IOException;
+
+/**
+ * A source of video frames for a video feed, such as a camera, a recorded video file or a directory of images.
+ * Like a frame grabber, a source may reuse the same frame object for consecutive grabs.
+ *
+ * @author Erandi Ganepola
+ */
+public interface FrameSource {
+
+    void start() throws IOException;
+
+    /**
+     * Grabs the next frame from the source.
+     *
+     * @return the grabbed frame, or null if no frame is available. A non live source returns null once exhausted
+     * @throws IOException if unable to grab the frame
+     */
+    Frame grab() throws IOException;
+
+    /**
+     * @return timestamp of the last grabbed frame in microseconds
+     */
+    long getTimestamp();
+
+    /**
+     * @return frame rate of the source
+     */
+    double getFrameRate();
+
+    /**
+     * @return true if the source produces frames in real time (ex: a camera) and never gets exhausted
+     */
+    boolean isLive();
+
+    void stop() throws IOException;
+}
@@ -22,10 +22,6 @@
 
 package ueg.watchdog.api;
 
-import org.bytedeco.javacpp.opencv_core.Mat;
-
-import java.util.Map;
-
 /**
  * Interface for gender face classes
  *
@@ -34,12 +30,11 @@ import java.util.Map;
 public interface GenderDetector {
 
     /**
-     * Predicts and returns the gender of a given image
+     * Predicts the gender of the given faces
      *
-     * @param frameData frame of the person's image
-     * @return predicted gender
+     * @param faces faces of a frame, each given its predicted gender
      */
-    Map<Mat, Gender> predictGender(FrameData frameData);
+    void predictGender(FaceAnalysis[] faces);
 
     enum Gender {
         MALE,
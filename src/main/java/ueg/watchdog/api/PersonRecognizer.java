@@ -32,4 +32,11 @@ import ueg.watchdog.model.Profile;
 public interface PersonRecognizer {
 
     Profile recognize(opencv_core.Mat face);
+
+    /**
+     * Recognizes the given faces
+     *
+     * @param faces faces of a frame, each given its recognized profile if any
+     */
+    void recognize(FaceAnalysis[] faces);
 }
@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.api;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bytedeco.javacpp.opencv_core.NORM_MINMAX;
+import static org.bytedeco.javacpp.opencv_core.normalize;
+import static org.bytedeco.javacpp.opencv_imgproc.COLOR_BGR2GRAY;
+import static org.bytedeco.javacpp.opencv_imgproc.cvtColor;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+
+/**
+ * A detected face with the variants of it the classifiers need, such as a grayscale or resized copy. Each variant is
+ * computed once, when first asked for, and shared by all the classifiers of the face.
+ * <p>
+ * The variants are kept in buffers of their own, which are reused for the next face after {@link #reset(Mat)}. Hence
+ * the variants are only valid until then, and an instance should only be used by one thread at a time.
+ *
+ * @author Erandi Ganepola
+ */
+public class PreparedFace {
+
+    private Mat face;
+    private final Mat gray = new Mat();
+    private boolean grayReady;
+    private final List<Variant> variants = new ArrayList<>(4);
+
+    public PreparedFace(Mat face) {
+        this.face = face;
+    }
+
+    /**
+     * Starts over with another face, keeping the buffers of the variants
+     */
+    public PreparedFace reset(Mat face) {
+        this.face = face;
+        grayReady = false;
+        for (Variant variant : variants) {
+            variant.ready = false;
+        }
+        return this;
+    }
+
+    /**
+     * @return the face as detected
+     */
+    public Mat getFace() {
+        return face;
+    }
+
+    public Mat getGray() {
+        if (!grayReady) {
+            cvtColor(face, gray, COLOR_BGR2GRAY);
+            grayReady = true;
+        }
+        return gray;
+    }
+
+    /**
+     * @param gray whether to resize the grayscale face, or the face as detected
+     * @return the face resized to the given size
+     */
+    public Mat getResized(boolean gray, int width, int height) {
+        return getVariant(gray, width, height, 0);
+    }
+
+    /**
+     * @param gray whether to resize the grayscale face, or the face as detected
+     * @param max  maximum value of the pixels after normalizing, with the minimum at 0
+     * @return the face resized to the given size and normalized
+     */
+    public Mat getNormalized(boolean gray, int width, int height, double max) {
+        return getVariant(gray, width, height, max);
+    }
+
+    private Mat getVariant(boolean gray, int width, int height, double max) {
+        Variant variant = null;
+        for (Variant candidate : variants) {
+            if (candidate.gray == gray && candidate.width == width && candidate.height == height && candidate.max == max) {
+                variant = candidate;
+                break;
+            }
+        }
+        if (variant == null) {
+            variant = new Variant(gray, width, height, max);
+            variants.add(variant);
+        }
+
+        if (!variant.ready) {
+            if (max > 0) {
+                normalize(getVariant(gray, width, height, 0), variant.mat, 0, max, NORM_MINMAX, -1, null);
+            } else {
+                resize(gray ? getGray() : face, variant.mat, variant.size);
+            }
+            variant.ready = true;
+        }
+        return variant.mat;
+    }
+
+    /**
+     * A resized, and optionally normalized, copy of the face
+     */
+    private static class Variant {
+
+        private final boolean gray;
+        private final int width;
+        private final int height;
+        private final double max;
+        private final Size size;
+        private final Mat mat = new Mat();
+        private boolean ready;
+
+        private Variant(boolean gray, int width, int height, double max) {
+            this.gray = gray;
+            this.width = width;
+            this.height = height;
+            this.max = max;
+            this.size = new Size(width, height);
+        }
+    }
+}
@@ -21,47 +21,59 @@
  */
 package ueg.watchdog.core;
 
-import org.bytedeco.javacv.Frame;
 import ueg.watchdog.api.AbstractWatchDogElement;
+import ueg.watchdog.api.FrameBuffer;
 import ueg.watchdog.api.FrameListener;
+import ueg.watchdog.api.FrameListener.BackpressurePolicy;
 import ueg.watchdog.core.configuration.WatchDogContext;
 
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.stream.Collectors;
 
 /**
  * Class responsible for keeping track of frames grabbed by the {@link WatchDog}
  * class. Also, this class will notify the frames newly received to the
  * listeners.
+ * <p>
+ * Frames are kept in a bounded {@link FrameRingBuffer}. Each listener is notified on its own thread and falls behind
+ * according to its own {@link BackpressurePolicy}, so the memory used by queued frames never grows beyond the ring.
+ * Listeners are registered without locking, hence they can be added and removed while frames are being notified.
  *
  * @author Erandi Ganepola
  */
 public class FrameManager extends AbstractWatchDogElement {
 
     private final Set<FrameListener> frameListeners;
-    private ExecutorService notifier;
+    private final ConcurrentHashMap<FrameListener, FrameRingBuffer.Consumer> consumers;
+    private volatile FrameRingBuffer ringBuffer;
 
     public FrameManager(WatchDogContext context) {
         super(context);
-        frameListeners = new HashSet<>();
+        frameListeners = new CopyOnWriteArraySet<>();
+        consumers = new ConcurrentHashMap<>();
     }
 
     @Override
     protected void startElement() {
-        logger.info("Starting frame manager");
-        notifier = Executors.newSingleThreadExecutor();
+        logger.info("Starting frame manager with a frame queue of size : {}", watchDogContext.getFrameRingCapacity());
+        ringBuffer = new FrameRingBuffer(watchDogContext.getFrameRingCapacity(),
+                watchDogContext.getFrameListenerBlockTimeoutMillis());
+        // Listeners registered before starting
+        frameListeners.forEach(this::startConsumer);
     }
 
     @Override
     protected void stopElement() {
         logger.info("Stopping frame manager");
-        notifier.shutdownNow();
-        synchronized (frameListeners) {
-            frameListeners.clear();
-        }
+        getListenerMetrics().forEach(metrics -> logger.info("{}", metrics));
+        FrameRingBuffer ringBuffer = this.ringBuffer;
+        this.ringBuffer = null;
+        frameListeners.clear();
+        consumers.clear();
+        ringBuffer.close();
     }
 
     /**
@@ -69,8 +81,8 @@ public class FrameManager extends AbstractWatchDogElement {
      * Since all the Listeners in the set will receive frames after grabbing them by FrameGrabber.
      */
     public void addFrameListener(FrameListener listener) {
-        synchronized (frameListeners) {
-            frameListeners.add(listener);
+        if (frameListeners.add(listener)) {
+            startConsumer(listener);
         }
     }
 
@@ -79,19 +91,114 @@ public class FrameManager extends AbstractWatchDogElement {
      */
     public void removeFrameListener(FrameListener listener) {
         frameListeners.remove(listener);
+        stopConsumer(listener);
     }
 
     /**
      * This method is called after grabbing frames by FrameGrabber in WatchDog class.
      * Those frames are submitted to already registered FrameListeners.
      *
-     * @param frame the newly captured frame
+     * @param frameBuffer the newly captured frame. Retained until it is overwritten by a newer frame
+     */
+    public void addFrame(FrameBuffer frameBuffer, long timestamp) {
+        FrameRingBuffer ringBuffer = this.ringBuffer;
+        if (ringBuffer == null) {
+            logger.debug("Frame manager is stopped. Discarding frame");
+            return;
+        }
+
+        try {
+            ringBuffer.publish(frameBuffer, timestamp);
+        } catch (InterruptedException e) {
+            logger.debug("Interrupted while waiting for the frame listeners. Discarding frame");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return current metrics of all the registered listeners
      */
-    public void addFrame(Frame frame, long timestamp) {
-        notifier.submit(() -> {
-            synchronized (frameListeners) {
-                frameListeners.forEach(frameListener -> frameListener.frameAdded(frame, timestamp));
-            }
+    public List<ListenerMetrics> getListenerMetrics() {
+        return consumers.values().stream()
+                .map(ListenerMetrics::new)
+                .collect(Collectors.toList());
+    }
+
+    private void startConsumer(FrameListener listener) {
+        FrameRingBuffer ringBuffer = this.ringBuffer;
+        if (ringBuffer == null) {
+            // Started along with the frame manager
+            return;
+        }
+        consumers.computeIfAbsent(listener, key -> {
+            FrameRingBuffer.Consumer consumer = ringBuffer.addConsumer(key);
+            consumer.start();
+            return consumer;
         });
+        // Removed while being started
+        if (!frameListeners.contains(listener)) {
+            stopConsumer(listener);
+        }
+    }
+
+    private void stopConsumer(FrameListener listener) {
+        FrameRingBuffer ringBuffer = this.ringBuffer;
+        FrameRingBuffer.Consumer consumer = consumers.remove(listener);
+        // Waits for the listener to finish its current frame
+        if (consumer != null && ringBuffer != null) {
+            ringBuffer.removeConsumer(consumer);
+        }
+    }
+
+    /**
+     * A snapshot of the frame queue of a listener.
+     */
+    public static class ListenerMetrics {
+
+        private final FrameListener listener;
+        private final BackpressurePolicy policy;
+        private final long queueDepth;
+        private final long deliveredFrames;
+        private final long droppedFrames;
+        private final long stalls;
+
+        private ListenerMetrics(FrameRingBuffer.Consumer consumer) {
+            listener = consumer.getListener();
+            policy = consumer.getPolicy();
+            queueDepth = consumer.getQueueDepth();
+            deliveredFrames = consumer.getDeliveredFrames();
+            droppedFrames = consumer.getDroppedFrames();
+            stalls = consumer.getStalls();
+        }
+
+        public FrameListener getListener() {
+            return listener;
+        }
+
+        public BackpressurePolicy getPolicy() {
+            return policy;
+        }
+
+        public long getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getDeliveredFrames() {
+            return deliveredFrames;
+        }
+
+        public long getDroppedFrames() {
+            return droppedFrames;
+        }
+
+        public long getStalls() {
+            return stalls;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Frame listener : %s, policy : %s, queue depth : %d, delivered frames : %d, " +
+                    "dropped frames : %d, stalls : %d", listener, policy, queueDepth, deliveredFrames, droppedFrames, stalls);
+        }
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core;
+
+import ueg.watchdog.core.configuration.WatchDogContext.PacingPolicy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces frame capturing on absolute deadlines. The deadline of the n<sup>th</sup> frame slot is start + n * period, so
+ * the time taken to grab and dispatch a frame doesn't accumulate as drift. When the capturing falls behind, the missed
+ * slots are either caught up by capturing without waiting ({@link PacingPolicy#CATCH_UP}) or skipped
+ * ({@link PacingPolicy#DROP}).
+ * <p>
+ * Not thread safe. A pacer is meant to be used by a single capturing thread.
+ *
+ * @author Erandi Ganepola
+ */
+public class FramePacer {
+
+    private final long periodNanos;
+    private final long lateToleranceNanos;
+    private final PacingPolicy policy;
+    private final int maxCatchUpFrames;
+
+    private long startTime;
+    private long nextSlot;
+    private long currentSlot;
+    private long lateFrames;
+    private long droppedFrames;
+
+    /**
+     * @param frameRate        frame rate to be paced to
+     * @param policy           what to do with the missed frame slots
+     * @param maxCatchUpFrames maximum number of missed slots caught up with {@link PacingPolicy#CATCH_UP}. Slots
+     *                         missed beyond that are dropped
+     */
+    public FramePacer(double frameRate, PacingPolicy policy, int maxCatchUpFrames) {
+        this.periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / frameRate);
+        this.lateToleranceNanos = periodNanos / 4;
+        this.policy = policy;
+        this.maxCatchUpFrames = maxCatchUpFrames;
+    }
+
+    public void start() {
+        startTime = System.nanoTime();
+        nextSlot = 0;
+        currentSlot = 0;
+        lateFrames = 0;
+        droppedFrames = 0;
+    }
+
+    /**
+     * Waits until the deadline of the next frame slot. Returns immediately if the deadline has already passed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitNextFrame() throws InterruptedException {
+        long lateness = System.nanoTime() - deadlineOf(nextSlot);
+        if (lateness <= 0) {
+            TimeUnit.NANOSECONDS.sleep(-lateness);
+        } else if (lateness > lateToleranceNanos) {
+            lateFrames++;
+            long missedSlots = lateness / periodNanos;
+            long slotsToDrop = policy == PacingPolicy.DROP ? missedSlots : Math.max(0, missedSlots - maxCatchUpFrames);
+            nextSlot += slotsToDrop;
+            droppedFrames += slotsToDrop;
+        }
+        currentSlot = nextSlot++;
+    }
+
+    /**
+     * @return the wall clock timestamp of the current frame slot in microseconds, relative to the start
+     */
+    public long getTimestamp() {
+        return TimeUnit.NANOSECONDS.toMicros(currentSlot * periodNanos);
+    }
+
+    /**
+     * @return number of frame slots which were started after their deadline
+     */
+    public long getLateFrames() {
+        return lateFrames;
+    }
+
+    /**
+     * @return number of frame slots skipped without capturing a frame
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private long deadlineOf(long slot) {
+        return startTime + slot * periodNanos;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core;
+
+import org.bytedeco.javacv.Frame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ueg.watchdog.api.FrameBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size pool of preallocated native frame buffers. Frame grabbers reuse the same native buffer for every
+ * grabbed frame, hence a grabbed frame is copied in to a pooled buffer before being handed over to the parties which
+ * process it asynchronously. The pool never grows, which puts a hard limit on the native memory used by in flight
+ * frames. When all the buffers are in use, new frames are dropped.
+ *
+ * @author Erandi Ganepola
+ */
+public class FramePool {
+
+    private static final Logger logger = LoggerFactory.getLogger(FramePool.class);
+
+    private final BlockingQueue<PooledFrameBuffer> freeBuffers;
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    /**
+     * @param size     number of buffers in the pool
+     * @param width    width of the frames
+     * @param height   height of the frames
+     * @param channels number of channels of the frames
+     */
+    public FramePool(int size, int width, int height, int channels) {
+        freeBuffers = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            freeBuffers.add(new PooledFrameBuffer(new Frame(width, height, Frame.DEPTH_UBYTE, channels)));
+        }
+    }
+
+    /**
+     * Copies the given frame in to a free buffer of the pool.
+     *
+     * @param frame frame to be copied. Only frames with 8 bit unsigned depth are supported
+     * @return a buffer holding a copy of the frame, with one reference owned by the caller. null if all the buffers
+     * are in use
+     */
+    public FrameBuffer copyOf(Frame frame) {
+        PooledFrameBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            long dropped = droppedFrames.incrementAndGet();
+            logger.debug("No free frame buffer in the pool. Dropped {} frames so far", dropped);
+            return null;
+        }
+        buffer.copy(frame);
+        buffer.references.set(1);
+        return buffer;
+    }
+
+    /**
+     * Copies the given frame in to a buffer of the pool, waiting for a buffer to be free if all are in use. Used where
+     * frames must not be dropped.
+     *
+     * @param frame frame to be copied. Only frames with 8 bit unsigned depth are supported
+     * @return a buffer holding a copy of the frame, with one reference owned by the caller
+     * @throws InterruptedException if interrupted while waiting for a free buffer
+     */
+    public FrameBuffer awaitCopyOf(Frame frame) throws InterruptedException {
+        PooledFrameBuffer buffer = freeBuffers.take();
+        buffer.copy(frame);
+        buffer.references.set(1);
+        return buffer;
+    }
+
+    /**
+     * @return number of frames dropped since all the buffers were in use
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * @return number of buffers which are not in use
+     */
+    public int getFreeBuffers() {
+        return freeBuffers.size();
+    }
+
+    private class PooledFrameBuffer implements FrameBuffer {
+
+        private final AtomicInteger references = new AtomicInteger();
+        private Frame frame;
+
+        private PooledFrameBuffer(Frame frame) {
+            this.frame = frame;
+        }
+
+        @Override
+        public Frame getFrame() {
+            return frame;
+        }
+
+        @Override
+        public FrameBuffer retain() {
+            if (references.getAndIncrement() <= 0) {
+                throw new IllegalStateException("Attempting to retain a released frame buffer");
+            }
+            return this;
+        }
+
+        @Override
+        public void release() {
+            int remaining = references.decrementAndGet();
+            if (remaining == 0) {
+                freeBuffers.offer(this);
+            } else if (remaining < 0) {
+                throw new IllegalStateException("Frame buffer released more times than it was retained");
+            }
+        }
+
+        private void copy(Frame source) {
+            if (frame.imageWidth != source.imageWidth || frame.imageHeight != source.imageHeight
+                    || frame.imageChannels != source.imageChannels) {
+                // Only happens if the source doesn't honour the configured resolution. Reallocated once for such sources
+                logger.debug("Reallocating frame buffer for frames of size : {}x{}x{}", source.imageWidth,
+                        source.imageHeight, source.imageChannels);
+                frame = new Frame(source.imageWidth, source.imageHeight, Frame.DEPTH_UBYTE, source.imageChannels);
+            }
+
+            ByteBuffer from = ((ByteBuffer) source.image[0]).duplicate();
+            ByteBuffer to = ((ByteBuffer) frame.image[0]).duplicate();
+            int rowBytes = source.imageWidth * source.imageChannels;
+            if (source.imageStride == frame.imageStride) {
+                from.limit(source.imageStride * (source.imageHeight - 1) + rowBytes).position(0);
+                to.position(0);
+                to.put(from);
+            } else {
+                for (int row = 0; row < source.imageHeight; row++) {
+                    from.limit(row * source.imageStride + rowBytes).position(row * source.imageStride);
+                    to.position(row * frame.imageStride);
+                    to.put(from);
+                }
+            }
+            frame.keyFrame = source.keyFrame;
+        }
+    }
+}
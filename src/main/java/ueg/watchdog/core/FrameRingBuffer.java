@@ -0,0 +1,355 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ueg.watchdog.api.FrameBuffer;
+import ueg.watchdog.api.FrameListener;
+import ueg.watchdog.api.FrameListener.BackpressurePolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded ring of frames shared by all the listeners of a {@link FrameManager}. Published frames are kept in the
+ * ring until they are overwritten. Every listener is driven by its own {@link Consumer} which tracks its own sequence
+ * in the ring, so that each listener can fall behind independently of the others according to its
+ * {@link BackpressurePolicy}. A frame is never overwritten before all the {@link BackpressurePolicy#BLOCK} consumers
+ * have consumed it, hence the publisher waits for them when the ring is full. A blocking consumer which doesn't catch
+ * up within its block timeout is marked as stalled and gets its frames dropped until it catches up, so that a single
+ * stuck listener can't hold back the capturing and the other listeners. The timeout is the one of the listener, see
+ * {@link FrameListener#getBlockTimeoutMillis()}, or else the one of the ring.
+ *
+ * @author Erandi Ganepola
+ */
+public class FrameRingBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameRingBuffer.class);
+    private static final int STOP_TIMEOUT_SECONDS = 5;
+
+    private final int capacity;
+    private final FrameBuffer[] frames;
+    private final long[] timestamps;
+    private final long blockTimeoutNanos;
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameAvailable = lock.newCondition();
+    private final Condition slotAvailable = lock.newCondition();
+
+    /**
+     * Sequence of the last published frame
+     */
+    private volatile long cursor = -1;
+    private boolean closed = false;
+
+    public FrameRingBuffer(int capacity, long blockTimeoutMillis) {
+        this.capacity = capacity;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        frames = new FrameBuffer[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Publishes a frame to all the consumers. Waits up to the block timeouts of the blocking consumers which haven't
+     * consumed the frame to be overwritten.
+     *
+     * @param frameBuffer frame to be published. Retained by the ring until overwritten
+     * @param timestamp   timestamp of the frame
+     * @return false if the ring is closed
+     * @throws InterruptedException if interrupted while waiting for a blocking consumer
+     */
+    public boolean publish(FrameBuffer frameBuffer, long timestamp) throws InterruptedException {
+        FrameBuffer overwritten;
+        lock.lockInterruptibly();
+        try {
+            long sequence = cursor + 1;
+            long start = System.nanoTime();
+            long waitNanos;
+            while (!closed && (waitNanos = blockingWaitNanos(sequence - capacity, System.nanoTime() - start)) > 0) {
+                slotAvailable.awaitNanos(waitNanos);
+            }
+            if (closed) {
+                return false;
+            }
+
+            int index = indexOf(sequence);
+            overwritten = frames[index];
+            frames[index] = frameBuffer.retain();
+            timestamps[index] = timestamp;
+            cursor = sequence;
+            frameAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (overwritten != null) {
+            overwritten.release();
+        }
+        return true;
+    }
+
+    /**
+     * Adds a consumer for the given listener, starting from the next published frame.
+     *
+     * @param listener listener to be fed
+     * @return the consumer, which has to be started to feed the listener
+     */
+    public Consumer addConsumer(FrameListener listener) {
+        Consumer consumer = new Consumer(listener, cursor);
+        consumers.add(consumer);
+        return consumer;
+    }
+
+    public void removeConsumer(Consumer consumer) {
+        consumers.remove(consumer);
+        consumer.running = false;
+        // Wakes up the consumer and the publisher which may be waiting for it
+        lock.lock();
+        try {
+            frameAvailable.signalAll();
+            slotAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        consumer.stop();
+    }
+
+    /**
+     * Stops all the consumers and releases the frames held by the ring.
+     */
+    public void close() {
+        List<Consumer> removed;
+        lock.lock();
+        try {
+            closed = true;
+            removed = new ArrayList<>(consumers);
+            consumers.clear();
+            removed.forEach(consumer -> consumer.running = false);
+            frameAvailable.signalAll();
+            slotAvailable.signalAll();
+            for (int i = 0; i < capacity; i++) {
+                if (frames[i] != null) {
+                    frames[i].release();
+                    frames[i] = null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        removed.forEach(Consumer::stop);
+    }
+
+    /**
+     * Marks the blocking consumers behind the given sequence for longer than their block timeout as stalled.
+     *
+     * @param minSequence oldest sequence the consumers should have taken, for the next frame to be published
+     * @param elapsedNanos time already waited for the consumers
+     * @return time to wait for the consumers still blocking the publisher, or 0 if none
+     */
+    private long blockingWaitNanos(long minSequence, long elapsedNanos) {
+        long waitNanos = 0;
+        for (Consumer consumer : consumers) {
+            if (consumer.policy != BackpressurePolicy.BLOCK || consumer.stalled || consumer.sequence >= minSequence) {
+                continue;
+            }
+            long remainingNanos = consumer.blockTimeoutNanos - elapsedNanos;
+            if (remainingNanos <= 0) {
+                consumer.stalled = true;
+                consumer.stalls++;
+                logger.warn("Frame listener : {} is stalled. Dropping its frames until it catches up",
+                        consumer.listener);
+            } else {
+                waitNanos = waitNanos == 0 ? remainingNanos : Math.min(waitNanos, remainingNanos);
+            }
+        }
+        return waitNanos;
+    }
+
+    private int indexOf(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    /**
+     * Feeds the frames of the ring to a single listener, on its own thread.
+     */
+    public class Consumer {
+
+        private final FrameListener listener;
+        private final BackpressurePolicy policy;
+        private final long blockTimeoutNanos;
+        private ExecutorService executor;
+        private volatile Thread dispatcherThread;
+
+        /**
+         * Sequence of the last frame taken by this consumer
+         */
+        private long sequence;
+        private long deliveredFrames;
+        private long droppedFrames;
+        private long stalls;
+        private boolean stalled = false;
+        private volatile boolean running = true;
+
+        private Consumer(FrameListener listener, long sequence) {
+            this.listener = listener;
+            this.policy = listener.getBackpressurePolicy();
+            long timeoutMillis = listener.getBlockTimeoutMillis();
+            this.blockTimeoutNanos = timeoutMillis < 0 ? FrameRingBuffer.this.blockTimeoutNanos
+                    : timeoutMillis == 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            this.sequence = sequence;
+        }
+
+        public void start() {
+            executor = Executors.newSingleThreadExecutor();
+            executor.submit(this::dispatch);
+        }
+
+        /**
+         * Waits for the frame being dispatched, so that the listener can safely release its resources once removed.
+         */
+        private void stop() {
+            if (executor == null) {
+                return;
+            }
+            executor.shutdown();
+            if (Thread.currentThread() != dispatcherThread) {
+                try {
+                    if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        logger.warn("Frame listener : {} didn't stop in {} seconds", listener, STOP_TIMEOUT_SECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void dispatch() {
+            dispatcherThread = Thread.currentThread();
+            while (running) {
+                FrameBuffer frameBuffer;
+                long timestamp;
+
+                lock.lock();
+                try {
+                    while (running && sequence >= cursor) {
+                        frameAvailable.awaitUninterruptibly();
+                    }
+                    if (!running) {
+                        break;
+                    }
+
+                    long next = sequence + 1;
+                    long oldest = cursor - capacity + 1;
+                    if (policy == BackpressurePolicy.LATEST_ONLY && next < cursor) {
+                        droppedFrames += cursor - next;
+                        next = cursor;
+                    } else if (next < oldest) {
+                        // Overwritten while falling behind or while stalled
+                        droppedFrames += oldest - next;
+                        next = oldest;
+                    }
+
+                    frameBuffer = frames[indexOf(next)].retain();
+                    timestamp = timestamps[indexOf(next)];
+                    sequence = next;
+                    deliveredFrames++;
+                    if (stalled && sequence == cursor) {
+                        stalled = false;
+                        logger.info("Frame listener : {} caught up", listener);
+                    }
+                    slotAvailable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    listener.frameAdded(frameBuffer, timestamp);
+                } catch (Exception e) {
+                    logger.error("Error occurred in frame listener : {}", listener, e);
+                } finally {
+                    frameBuffer.release();
+                }
+            }
+        }
+
+        public FrameListener getListener() {
+            return listener;
+        }
+
+        public BackpressurePolicy getPolicy() {
+            return policy;
+        }
+
+        /**
+         * @return number of published frames not yet taken by this consumer
+         */
+        public long getQueueDepth() {
+            lock.lock();
+            try {
+                return Math.min(cursor - sequence, capacity);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long getDeliveredFrames() {
+            lock.lock();
+            try {
+                return deliveredFrames;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return number of times this consumer was marked as stalled
+         */
+        public long getStalls() {
+            lock.lock();
+            try {
+                return stalls;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return number of frames skipped by this consumer due to falling behind
+         */
+        public long getDroppedFrames() {
+            lock.lock();
+            try {
+                return droppedFrames;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
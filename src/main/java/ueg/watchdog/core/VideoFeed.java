@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core;
+
+import org.bytedeco.javacv.Frame;
+import ueg.watchdog.api.AbstractWatchDogElement;
+import ueg.watchdog.api.FrameBuffer;
+import ueg.watchdog.api.FrameSource;
+import ueg.watchdog.core.configuration.WatchDogContext;
+import ueg.watchdog.core.exception.WatchDogRuntitimeException;
+import ueg.watchdog.core.processing.AnalysisWorkerPool;
+import ueg.watchdog.core.processing.video.VideoRecordingManager;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static ueg.watchdog.Constants.VideoConstants.FRAME_CHANNELS;
+import static ueg.watchdog.Constants.VideoConstants.MAX_CATCH_UP_FRAMES;
+
+/**
+ * A single video source managed by WatchDog. Each feed grabs frames from its own {@link FrameSource} on its own thread
+ * and hands them over to its own {@link FrameManager}, which is recorded by the feed's own {@link VideoRecordingManager}.
+ *
+ * @author Erandi Ganepola
+ */
+public class VideoFeed extends AbstractWatchDogElement {
+
+    private final String name;
+    private final FrameSource frameSource;
+
+    private FrameManager frameManager;
+    private VideoRecordingManager videoRecordingManager;
+
+    private FramePacer framePacer;
+    private FramePool framePool;
+    private ExecutorService executor;
+
+    /**
+     * @param analysisWorkerPool workers shared by the feeds, detecting the faces of the frames analysed inline
+     */
+    public VideoFeed(WatchDogContext context, String name, FrameSource frameSource,
+                     AnalysisWorkerPool analysisWorkerPool) {
+        super(context);
+        this.name = name;
+        this.frameSource = frameSource;
+        frameManager = new FrameManager(context);
+        // Each feed records in to its own directory, so that the video file names of parallel feeds won't collide
+        videoRecordingManager = new VideoRecordingManager(context, frameManager, analysisWorkerPool, name);
+    }
+
+    @Override
+    protected void startElement() {
+        logger.info("Initializing video feed : {} from source : {}", name, frameSource);
+
+        executor = Executors.newSingleThreadExecutor();
+        framePacer = new FramePacer(watchDogContext.getFrameRate(), watchDogContext.getPacingPolicy(), MAX_CATCH_UP_FRAMES);
+        framePool = new FramePool(watchDogContext.getFramePoolSize(), watchDogContext.getFrameWidth(),
+                watchDogContext.getFrameHeight(), FRAME_CHANNELS);
+
+        logger.debug("Starting frame source of feed : {}", name);
+        try {
+            frameSource.start();
+        } catch (IOException e) {
+            logger.error("Error when initializing the frame source of feed : {}", name, e);
+            throw new WatchDogRuntitimeException("Unable to start the frame source of feed : " + name, e);
+        }
+
+        logger.debug("Starting frame manager");
+        frameManager.start();
+
+        logger.debug("Starting the video recorder");
+        videoRecordingManager.start();
+
+        // Recorded sources can be replayed without any waiting to measure the maximum throughput of the pipeline
+        boolean paced = frameSource.isLive() || !watchDogContext.isReplayAtMaxSpeed();
+
+        logger.debug("Starting video frame grabbing");
+        executor.submit(() -> {
+            long startTime = System.nanoTime();
+            long noOfFrames = 0;
+            framePacer.start();
+            for (; ; ) {
+                try {
+                    /*
+                     * Wait until the deadline of the next frame to match the frame rate. Time spent on grabbing and
+                     * dispatching the previous frame is already accounted in the deadline.
+                     */
+                    if (paced) {
+                        framePacer.awaitNextFrame();
+                    }
+
+                    /*
+                     * First, we grab a frame from the source. Since the source reuses its frame, it is copied to a pooled
+                     * buffer. Then, we add it to a frame queue where multiple parties can use those stored frames.
+                     * Paced frames are time stamped with their wall clock frame slot, so that the recorded video matches
+                     * the wall clock time.
+                     */
+                    Frame frame = frameSource.grab();
+                    if (frame != null) {
+                        FrameBuffer frameBuffer = framePool.copyOf(frame);
+                        if (frameBuffer != null) {
+                            try {
+                                frameManager.addFrame(frameBuffer, paced ? framePacer.getTimestamp() : frameSource.getTimestamp());
+                            } finally {
+                                frameBuffer.release();
+                            }
+                            noOfFrames++;
+                        }
+                    } else if (!frameSource.isLive()) {
+                        logger.info("Reached the end of the frame source of feed : {}", name);
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    logger.debug("Interrupted while waiting for the next frame of feed : {}", name);
+                    break;
+                } catch (IOException e) {
+                    logger.error("Error when grabbing the frame", e);
+                }
+
+                if (state != State.STARTED) {
+                    logger.warn("State is : {}. Stopping frame grabbing of feed : {}", state, name);
+                    break;
+                }
+            }
+
+            double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+            logger.info("Stopped frame grabbing of feed : {}. Grabbed {} frames in {} seconds ({} fps), late frames : {}, " +
+                            "dropped frames : {}, frames dropped for lack of buffers : {}", name, noOfFrames,
+                    String.format("%.2f", elapsedSeconds), String.format("%.2f", noOfFrames / elapsedSeconds),
+                    framePacer.getLateFrames(), framePacer.getDroppedFrames(), framePool.getDroppedFrames());
+        });
+    }
+
+    @Override
+    protected synchronized void stopElement() {
+        executor.shutdownNow();
+
+        logger.debug("Stopping the video manager of feed : {}", name);
+        videoRecordingManager.stop();
+
+        logger.debug("Stopping the frame manager of feed : {}", name);
+        frameManager.stop();
+
+        try {
+            logger.debug("Stopping frame source of feed : {}", name);
+            frameSource.stop();
+        } catch (IOException e) {
+            logger.error("Error occurred when stopping the frame source", e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FrameSource getFrameSource() {
+        return frameSource;
+    }
+
+    /**
+     * @return pacer of the current capturing session, which keeps the late and dropped frame counts
+     */
+    public FramePacer getFramePacer() {
+        return framePacer;
+    }
+
+    public FrameManager getFrameManager() {
+        return frameManager;
+    }
+
+    public VideoRecordingManager getVideoRecordingManager() {
+        return videoRecordingManager;
+    }
+}
@@ -22,26 +22,29 @@
 
 package ueg.watchdog.core;
 
-import org.bytedeco.javacv.FFmpegFrameGrabber;
-import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.FrameGrabber;
 import ueg.watchdog.Constants;
 import ueg.watchdog.api.AbstractWatchDogElement;
 import ueg.watchdog.api.PersonRecognizedCallback;
 import ueg.watchdog.core.configuration.WatchDogContext;
+import ueg.watchdog.core.processing.AnalysisWorkerPool;
 import ueg.watchdog.core.processing.PersonDetectionProcessor;
 import ueg.watchdog.core.processing.LiveFeedProcessor;
 import ueg.watchdog.core.processing.video.VideoProcessor;
 import ueg.watchdog.core.processing.video.VideoRecordingManager;
+import ueg.watchdog.core.source.FrameSources;
 import ueg.watchdog.util.WatchDogUtils;
 
 import javax.swing.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static ueg.watchdog.Constants.VideoConstants.FEED_NAME_PREFIX;
 
 /**
- * This is the main class responsible for processing Video captured through the camera. This class captures frame by
- * frame and then queue it for processing. At the same time, it can show the current feed.
+ * This is the main class responsible for processing Video captured through the cameras. Each camera is captured frame by
+ * frame by a {@link VideoFeed} of its own, which queues the frames for processing. At the same time, it can show the
+ * current feed.
  *
  * @author Erandi Ganepola
  */
@@ -49,22 +52,29 @@ public class WatchDog extends AbstractWatchDogElement {
     // TODO: 1/8/17 Add confidence to person recognition
     private static WatchDog instance;
 
-    private FrameManager frameManager;
-    private VideoRecordingManager videoRecordingManager;
+    private List<VideoFeed> videoFeeds;
+    private AnalysisWorkerPool analysisWorkerPool;
     private LiveFeedProcessor liveFeedProcessor;
     private PersonDetectionProcessor detectPersonProcessor;
     private VideoProcessor videoProcessor;
 
-    private FFmpegFrameGrabber frameGrabber;
-    private ExecutorService executor;
-
     private WatchDog(WatchDogContext context) {
         super(context);
-        frameManager = new FrameManager(context);
-        videoRecordingManager = new VideoRecordingManager(context);
+        analysisWorkerPool = new AnalysisWorkerPool(context);
+        videoFeeds = new ArrayList<>();
+        List<String> videoSources = context.getVideoSources();
+        for (int i = 0; i < videoSources.size(); i++) {
+            videoFeeds.add(new VideoFeed(context, FEED_NAME_PREFIX + i, FrameSources.create(videoSources.get(i), context),
+                    analysisWorkerPool));
+        }
         liveFeedProcessor = new LiveFeedProcessor();
-        detectPersonProcessor = new PersonDetectionProcessor();
+        detectPersonProcessor = new PersonDetectionProcessor(context, analysisWorkerPool);
         videoProcessor = new VideoProcessor(context);
+        videoFeeds.forEach(videoFeed -> videoFeed.getVideoRecordingManager().addVideoSavedListener(video -> {
+            if (!video.isProcessed()) {
+                videoProcessor.notifyVideoAdded();
+            }
+        }));
 
         logger.debug("Creating data directories if not exist");
         WatchDogUtils.createDirectoryIfNotExist(Constants.DATA_DIR);
@@ -97,64 +107,14 @@ public class WatchDog extends AbstractWatchDogElement {
 
     @Override
     protected void startElement() {
-        logger.info("Initializing WatchDog");
-
-        frameGrabber = new FFmpegFrameGrabber("/dev/video0");
-        frameGrabber.setFormat("video4linux2");
-        frameGrabber.setFrameRate(watchDogContext.getFrameRate());
-        frameGrabber.setImageWidth(watchDogContext.getFrameWidth());
-        frameGrabber.setImageHeight(watchDogContext.getFrameHeight());
-
-        executor = Executors.newSingleThreadExecutor();
-
-        logger.debug("Starting frame grabber");
-        try {
-            frameGrabber.start();
-            logger.debug("Started frame grabber with image width-height : {}-{}", frameGrabber.getImageWidth(), frameGrabber.getImageHeight());
-        } catch (FrameGrabber.Exception e) {
-            logger.error("Error when initializing the frame grabber");
-            throw new RuntimeException("Unable to start the FrameGrabber");
-        }
+        logger.info("Initializing WatchDog with {} video feeds", videoFeeds.size());
 
-        logger.debug("Starting the video recorder");
-        videoRecordingManager.start();
-
-        logger.debug("Starting frame manager");
-        frameManager.start();
-
-        logger.debug("Starting video frame grabbing");
-        executor.submit(() -> {
-            long waitTime = (long) ((1.0 / watchDogContext.getFrameRate()) * 1000);
-            for (; ; ) {
-                try {
-                    /*
-                     * First, we grab a frame from the camera. Then, we add it to a frame queue where multiple parties
-                     * can use those stored frames.
-                     */
-                    Frame frame = frameGrabber.grab();
-                    if (frame != null) {
-                        frameManager.addFrame(frame, frameGrabber.getTimestamp());
-                    }
-
-                    /*
-                     * Wait some time to match the frame rate
-                     */
-                    try {
-                        Thread.sleep(waitTime);
-                    } catch (InterruptedException e) {
-                        logger.error("Interrupted", e);
-                    }
-
-                } catch (FrameGrabber.Exception e) {
-                    logger.error("Error when grabbing the frame", e);
-                }
-
-                if (state != State.STARTED) {
-                    logger.warn("State is : {}. Stopping frame grabbing", state);
-                    break;
-                }
-            }
-            logger.info("Stopped frame grabbing");
+        logger.debug("Starting analysis worker pool");
+        analysisWorkerPool.start();
+
+        videoFeeds.forEach(videoFeed -> {
+            logger.debug("Starting video feed : {}", videoFeed.getName());
+            videoFeed.start();
         });
     }
 
@@ -177,29 +137,35 @@ public class WatchDog extends AbstractWatchDogElement {
 
     @Override
     protected synchronized void stopElement() {
-        executor.shutdownNow();
-
-        logger.debug("Stopping the video manager");
-        videoRecordingManager.stop();
+        videoFeeds.forEach(videoFeed -> {
+            logger.debug("Stopping video feed : {}", videoFeed.getName());
+            videoFeed.stop();
+        });
 
-        logger.debug("Stopping the frame manager");
-        frameManager.stop();
+        logger.debug("Stopping analysis worker pool");
+        analysisWorkerPool.stop();
+    }
 
-        try {
-            logger.debug("Releasing and stopping FrameGrabber");
-            frameGrabber.release();
-            frameGrabber.stop();
-        } catch (FrameGrabber.Exception e) {
-            logger.error("Error occurred when stopping the FrameGrabber", e);
-        }
+    public List<VideoFeed> getVideoFeeds() {
+        return Collections.unmodifiableList(videoFeeds);
     }
 
+    /**
+     * @return frame manager of the primary (first) video feed, which is the one shown in the live views
+     */
     public FrameManager getFrameManager() {
-        return frameManager;
+        return videoFeeds.get(0).getFrameManager();
     }
 
+    /**
+     * @return video recording manager of the primary (first) video feed
+     */
     public VideoRecordingManager getVideoRecordingManager() {
-        return videoRecordingManager;
+        return videoFeeds.get(0).getVideoRecordingManager();
+    }
+
+    public AnalysisWorkerPool getAnalysisWorkerPool() {
+        return analysisWorkerPool;
     }
 
     public LiveFeedProcessor getLiveFeedProcessor() {
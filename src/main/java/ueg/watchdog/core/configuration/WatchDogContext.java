@@ -24,6 +24,10 @@ package ueg.watchdog.core.configuration;
 
 import org.bytedeco.javacpp.avcodec;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import static ueg.watchdog.Constants.VideoConstants.*;
 
 /**
@@ -35,8 +39,18 @@ import static ueg.watchdog.Constants.VideoConstants.*;
 public class WatchDogContext {
 
     private OperatingMode operatingMode = OperatingMode.HUMAN_PRESENCE_AWARE;
+    private AnalysisMode analysisMode = AnalysisMode.OFFLINE;
+    private OutputMode outputMode = OutputMode.RE_ENCODE;
     private String storagePath = VIDEO_STORAGE_PATH;
     private String compressionMode = "ultrafast";
+    /**
+     * Encoder settings of the videos recorded from the feeds
+     */
+    private EncoderProfile recordingEncoderProfile = EncoderProfile.LOW_LATENCY;
+    /**
+     * Encoder settings of the processed videos
+     */
+    private EncoderProfile processingEncoderProfile = EncoderProfile.BALANCED;
     private double frameRate = 5.0;
     private int frameWidth = VIDEO_WIDTH;
     private int frameHeight = VIDEO_HEIGHT;
@@ -50,6 +64,103 @@ public class WatchDogContext {
      * Number between 1-51. 1 means loss-less with low compression ratio. 51 means great compression with great loss
      */
     private int videoQuality = 40;
+    /**
+     * Video sources to capture from. A source can be a camera device (ex: /dev/video0), a video file or a directory of
+     * images. Each source gets its own frame manager and recorder
+     */
+    private List<String> videoSources = new ArrayList<>(Collections.singletonList(DEFAULT_VIDEO_SOURCE));
+    private String videoSourceFormat = VIDEO_SOURCE_FORMAT;
+    /**
+     * If true, video file and image directory sources are replayed as fast as possible instead of at the frame rate.
+     * Used to measure the maximum throughput of the processing pipeline
+     */
+    private boolean replayAtMaxSpeed = false;
+    /**
+     * What to do with the frames which couldn't be captured on time
+     */
+    private PacingPolicy pacingPolicy = PacingPolicy.DROP;
+    /**
+     * Number of preallocated frame buffers per video feed. Limits the native memory used by the frames in flight.
+     * Should be larger than the frame ring capacity plus the frames being processed by the listeners
+     */
+    private int framePoolSize = FRAME_POOL_SIZE;
+    /**
+     * Maximum duration of a recorded video segment. Segments become available for processing once completed
+     */
+    private int segmentDurationSeconds = SEGMENT_DURATION_SECONDS;
+    /**
+     * Maximum size of a recorded video segment, in bytes
+     */
+    private long segmentMaxBytes = SEGMENT_MAX_BYTES;
+    /**
+     * Number of recent frames queued for the frame listeners of a video feed
+     */
+    private int frameRingCapacity = FRAME_RING_CAPACITY;
+    /**
+     * Maximum time the capturing waits for a blocking frame listener, before dropping that listener's frames
+     */
+    private int frameListenerBlockTimeoutMillis = FRAME_LISTENER_BLOCK_TIMEOUT_MILLIS;
+    /**
+     * Number of face detection and recognition workers shared by all the video sources
+     */
+    private int analysisWorkers = Runtime.getRuntime().availableProcessors();
+    /**
+     * Whether faces are searched for only in the frames and regions with motion. The whole frame is still searched
+     * every few frames and while faces are being tracked, not to miss people who keep still
+     */
+    private boolean motionGatingEnabled = true;
+    /**
+     * Number of recorded videos processed at once. Each worker has its own detectors
+     */
+    private int videoProcessingWorkers = Runtime.getRuntime().availableProcessors();
+    /**
+     * Number of frames of a video searched for faces at once, by each video processing worker
+     */
+    private int detectionThreads = DETECTION_THREADS;
+    /**
+     * Number of chunks of a single video processed at once, shared by all the video processing workers. With 1, each
+     * video is processed as a whole
+     */
+    private int chunkWorkers = CHUNK_WORKERS;
+    /**
+     * Minimum duration of a chunk of a video processed in parallel, in seconds. Shorter videos are not split
+     */
+    private int chunkMinDurationSeconds = CHUNK_MIN_DURATION_SECONDS;
+    /**
+     * Duration of the video processed between checkpoints, in seconds. Processing resumes from the last checkpoint after
+     * a restart. Not positive to process each video in one go
+     */
+    private int checkpointIntervalSeconds = CHECKPOINT_INTERVAL_SECONDS;
+    /**
+     * Seconds a video claimed by a video processing worker stays claimed without being renewed, before another worker
+     * can claim it
+     */
+    private int videoLeaseSeconds = VIDEO_LEASE_SECONDS;
+    /**
+     * Number of times a video is claimed to be processed before giving up on it
+     */
+    private int videoMaxAttempts = VIDEO_MAX_ATTEMPTS;
+    /**
+     * Maximum number of faces classified by a CNN at once
+     */
+    private int cnnMaxBatchSize = CNN_MAX_BATCH_SIZE;
+    /**
+     * Maximum time a CNN waits for the faces of other threads to fill a batch, in milliseconds. With 0, only the faces
+     * of the threads already waiting are classified together
+     */
+    private long cnnBatchMaxWaitMillis = CNN_BATCH_MAX_WAIT_MILLIS;
+    /**
+     * Scale of the image faces are searched in, relative to the frame. Lower values are faster but miss small faces
+     */
+    private double detectionScale = DETECTION_SCALE;
+    /**
+     * Number of frames before the first face recorded in {@link OperatingMode#HUMAN_PRESENCE_AWARE} mode
+     */
+    private int preRollFrames = PRE_ROLL_FRAMES;
+    /**
+     * Maximum memory used to keep the pre roll frames, in bytes
+     */
+    private long preRollMaxBytes = PRE_ROLL_MAX_BYTES;
 
     private static WatchDogContext instance;
 
@@ -61,6 +172,22 @@ public class WatchDogContext {
         this.operatingMode = operatingMode;
     }
 
+    public AnalysisMode getAnalysisMode() {
+        return analysisMode;
+    }
+
+    public void setAnalysisMode(AnalysisMode analysisMode) {
+        this.analysisMode = analysisMode;
+    }
+
+    public OutputMode getOutputMode() {
+        return outputMode;
+    }
+
+    public void setOutputMode(OutputMode outputMode) {
+        this.outputMode = outputMode;
+    }
+
     public String getStoragePath() {
         return storagePath;
     }
@@ -77,6 +204,22 @@ public class WatchDogContext {
         this.compressionMode = compressionMode;
     }
 
+    public EncoderProfile getRecordingEncoderProfile() {
+        return recordingEncoderProfile;
+    }
+
+    public void setRecordingEncoderProfile(EncoderProfile recordingEncoderProfile) {
+        this.recordingEncoderProfile = recordingEncoderProfile;
+    }
+
+    public EncoderProfile getProcessingEncoderProfile() {
+        return processingEncoderProfile;
+    }
+
+    public void setProcessingEncoderProfile(EncoderProfile processingEncoderProfile) {
+        this.processingEncoderProfile = processingEncoderProfile;
+    }
+
     public double getFrameRate() {
         return frameRate;
     }
@@ -133,6 +276,190 @@ public class WatchDogContext {
         this.frameHeight = frameHeight;
     }
 
+    public List<String> getVideoSources() {
+        return videoSources;
+    }
+
+    public void setVideoSources(List<String> videoSources) {
+        this.videoSources = videoSources;
+    }
+
+    public String getVideoSourceFormat() {
+        return videoSourceFormat;
+    }
+
+    public void setVideoSourceFormat(String videoSourceFormat) {
+        this.videoSourceFormat = videoSourceFormat;
+    }
+
+    public boolean isReplayAtMaxSpeed() {
+        return replayAtMaxSpeed;
+    }
+
+    public void setReplayAtMaxSpeed(boolean replayAtMaxSpeed) {
+        this.replayAtMaxSpeed = replayAtMaxSpeed;
+    }
+
+    public PacingPolicy getPacingPolicy() {
+        return pacingPolicy;
+    }
+
+    public void setPacingPolicy(PacingPolicy pacingPolicy) {
+        this.pacingPolicy = pacingPolicy;
+    }
+
+    public int getFramePoolSize() {
+        return framePoolSize;
+    }
+
+    public void setFramePoolSize(int framePoolSize) {
+        this.framePoolSize = framePoolSize;
+    }
+
+    public int getSegmentDurationSeconds() {
+        return segmentDurationSeconds;
+    }
+
+    public void setSegmentDurationSeconds(int segmentDurationSeconds) {
+        this.segmentDurationSeconds = segmentDurationSeconds;
+    }
+
+    public long getSegmentMaxBytes() {
+        return segmentMaxBytes;
+    }
+
+    public void setSegmentMaxBytes(long segmentMaxBytes) {
+        this.segmentMaxBytes = segmentMaxBytes;
+    }
+
+    public int getFrameRingCapacity() {
+        return frameRingCapacity;
+    }
+
+    public void setFrameRingCapacity(int frameRingCapacity) {
+        this.frameRingCapacity = frameRingCapacity;
+    }
+
+    public int getFrameListenerBlockTimeoutMillis() {
+        return frameListenerBlockTimeoutMillis;
+    }
+
+    public void setFrameListenerBlockTimeoutMillis(int frameListenerBlockTimeoutMillis) {
+        this.frameListenerBlockTimeoutMillis = frameListenerBlockTimeoutMillis;
+    }
+
+    public int getAnalysisWorkers() {
+        return analysisWorkers;
+    }
+
+    public void setAnalysisWorkers(int analysisWorkers) {
+        this.analysisWorkers = analysisWorkers;
+    }
+
+    public int getVideoProcessingWorkers() {
+        return videoProcessingWorkers;
+    }
+
+    public void setVideoProcessingWorkers(int videoProcessingWorkers) {
+        this.videoProcessingWorkers = videoProcessingWorkers;
+    }
+
+    public int getDetectionThreads() {
+        return detectionThreads;
+    }
+
+    public void setDetectionThreads(int detectionThreads) {
+        this.detectionThreads = detectionThreads;
+    }
+
+    public int getChunkWorkers() {
+        return chunkWorkers;
+    }
+
+    public void setChunkWorkers(int chunkWorkers) {
+        this.chunkWorkers = chunkWorkers;
+    }
+
+    public int getChunkMinDurationSeconds() {
+        return chunkMinDurationSeconds;
+    }
+
+    public void setChunkMinDurationSeconds(int chunkMinDurationSeconds) {
+        this.chunkMinDurationSeconds = chunkMinDurationSeconds;
+    }
+
+    public int getCheckpointIntervalSeconds() {
+        return checkpointIntervalSeconds;
+    }
+
+    public void setCheckpointIntervalSeconds(int checkpointIntervalSeconds) {
+        this.checkpointIntervalSeconds = checkpointIntervalSeconds;
+    }
+
+    public int getVideoLeaseSeconds() {
+        return videoLeaseSeconds;
+    }
+
+    public void setVideoLeaseSeconds(int videoLeaseSeconds) {
+        this.videoLeaseSeconds = videoLeaseSeconds;
+    }
+
+    public int getVideoMaxAttempts() {
+        return videoMaxAttempts;
+    }
+
+    public void setVideoMaxAttempts(int videoMaxAttempts) {
+        this.videoMaxAttempts = videoMaxAttempts;
+    }
+
+    public int getCnnMaxBatchSize() {
+        return cnnMaxBatchSize;
+    }
+
+    public void setCnnMaxBatchSize(int cnnMaxBatchSize) {
+        this.cnnMaxBatchSize = cnnMaxBatchSize;
+    }
+
+    public long getCnnBatchMaxWaitMillis() {
+        return cnnBatchMaxWaitMillis;
+    }
+
+    public void setCnnBatchMaxWaitMillis(long cnnBatchMaxWaitMillis) {
+        this.cnnBatchMaxWaitMillis = cnnBatchMaxWaitMillis;
+    }
+
+    public boolean isMotionGatingEnabled() {
+        return motionGatingEnabled;
+    }
+
+    public void setMotionGatingEnabled(boolean motionGatingEnabled) {
+        this.motionGatingEnabled = motionGatingEnabled;
+    }
+
+    public double getDetectionScale() {
+        return detectionScale;
+    }
+
+    public void setDetectionScale(double detectionScale) {
+        this.detectionScale = detectionScale;
+    }
+
+    public int getPreRollFrames() {
+        return preRollFrames;
+    }
+
+    public void setPreRollFrames(int preRollFrames) {
+        this.preRollFrames = preRollFrames;
+    }
+
+    public long getPreRollMaxBytes() {
+        return preRollMaxBytes;
+    }
+
+    public void setPreRollMaxBytes(long preRollMaxBytes) {
+        this.preRollMaxBytes = preRollMaxBytes;
+    }
+
     public static WatchDogContext getInstance() {
         if (instance == null) {
             instance = new WatchDogContext();
@@ -152,4 +479,113 @@ public class WatchDogContext {
         NORMAL,
         HUMAN_PRESENCE_AWARE
     }
+
+    /**
+     * Whether the captured frames are analysed after being recorded or while being captured.
+     */
+    public enum AnalysisMode {
+        /**
+         * Record the frames as they are and analyse the recorded videos later
+         */
+        OFFLINE,
+        /**
+         * Analyse the frames as they are captured and record only the analysed frames
+         */
+        INLINE
+    }
+
+    /**
+     * How the processed videos are written when the recorded videos are analysed.
+     */
+    public enum OutputMode {
+        /**
+         * Encode the kept frames again, with the faces annotated on them
+         */
+        RE_ENCODE,
+        /**
+         * Copy the kept parts of the recorded video as they are, cut at key frames. The faces are written to a sidecar
+         * file instead of being drawn on the frames
+         */
+        STREAM_COPY
+    }
+
+    /**
+     * Rate control, key frame interval and threading of the video encoder. The encoding speed is set separately by the
+     * compression mode (the x264 preset).
+     * <p>
+     * Longer key frame intervals give smaller videos, but the videos can be cut only at key frames when stream copied.
+     */
+    public enum EncoderProfile {
+        /**
+         * Live recording: frames are written without being held back for look ahead, on a few threads per feed
+         */
+        LOW_LATENCY(28, 1, 2, "zerolatency"),
+        BALANCED(23, 2, 0, null),
+        /**
+         * Smallest videos, for long term storage
+         */
+        STORAGE_SAVER(30, 10, 0, null),
+        /**
+         * Constant quality given by the video quality setting
+         */
+        CONSTANT_QUALITY(-1, 2, 0, null),
+        /**
+         * Average bit rate given by the video bit rate setting
+         */
+        CONSTANT_BITRATE(-1, 2, 0, null);
+
+        private final int crf;
+        private final double keyFrameIntervalSeconds;
+        private final int threads;
+        private final String tune;
+
+        /**
+         * @param crf                     x264 constant rate factor, between 0 (loss-less) and 51
+         * @param keyFrameIntervalSeconds maximum time between key frames
+         * @param threads                 encoder threads, or 0 to use all the cores
+         * @param tune                    x264 tuning, if any
+         */
+        EncoderProfile(int crf, double keyFrameIntervalSeconds, int threads, String tune) {
+            this.crf = crf;
+            this.keyFrameIntervalSeconds = keyFrameIntervalSeconds;
+            this.threads = threads;
+            this.tune = tune;
+        }
+
+        /**
+         * @return constant rate factor of the given context, or -1 if the bit rate is used instead
+         */
+        public int getCrf(WatchDogContext context) {
+            if (this == CONSTANT_QUALITY) {
+                return context.getVideoQuality();
+            }
+            return crf;
+        }
+
+        public double getKeyFrameIntervalSeconds() {
+            return keyFrameIntervalSeconds;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public String getTune() {
+            return tune;
+        }
+    }
+
+    /**
+     * How the frame capturing catches up when it falls behind the frame rate.
+     */
+    public enum PacingPolicy {
+        /**
+         * Capture the missed frames without waiting, until caught up
+         */
+        CATCH_UP,
+        /**
+         * Skip the missed frames and continue from the current frame slot
+         */
+        DROP
+    }
 }
\ No newline at end of file
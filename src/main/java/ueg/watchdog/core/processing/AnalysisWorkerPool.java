@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing;
+
+import ueg.watchdog.api.AbstractWatchDogElement;
+import ueg.watchdog.api.FaceDetector;
+import ueg.watchdog.api.PersonRecognizer;
+import ueg.watchdog.core.configuration.WatchDogContext;
+import ueg.watchdog.core.processing.face.FisherFacesPersonRecognizer;
+import ueg.watchdog.core.processing.face.HaarFaceDetector;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A pool of face detection and recognition workers shared by all the video feeds, so that the analysis throughput
+ * scales with the number of cores rather than with the number of feeds.
+ * <p>
+ * {@link HaarFaceDetector} keeps native state between detections, hence every worker thread gets its own detector.
+ * The trained person recognizer is read only once trained, hence a single instance is shared by all the workers.
+ * At most one task per worker is accepted at a time, so that submitters are slowed down instead of queueing up frames.
+ *
+ * @author Erandi Ganepola
+ */
+public class AnalysisWorkerPool extends AbstractWatchDogElement {
+
+    private final ThreadLocal<FaceDetector> faceDetectors;
+    private final PersonRecognizer personRecognizer;
+    private ExecutorService workers;
+    private Semaphore permits;
+
+    public AnalysisWorkerPool(WatchDogContext context) {
+        super(context);
+        faceDetectors = ThreadLocal.withInitial(() -> new HaarFaceDetector(context.getDetectionScale()));
+        personRecognizer = FisherFacesPersonRecognizer.getInstance();
+    }
+
+    @Override
+    protected void startElement() {
+        int noOfWorkers = Math.max(1, watchDogContext.getAnalysisWorkers());
+        logger.info("Starting analysis worker pool with {} workers", noOfWorkers);
+        permits = new Semaphore(noOfWorkers);
+        workers = Executors.newFixedThreadPool(noOfWorkers);
+    }
+
+    @Override
+    protected void stopElement() {
+        logger.info("Stopping analysis worker pool");
+        workers.shutdownNow();
+    }
+
+    /**
+     * Submits an analysis task to be run on one of the workers with that worker's own detectors. Blocks until a
+     * worker is free.
+     *
+     * @param task task to be run
+     * @return future result of the task
+     * @throws InterruptedException if interrupted while waiting for a free worker
+     */
+    public <T> Future<T> submit(AnalysisTask<T> task) throws InterruptedException {
+        permits.acquire();
+        try {
+            return workers.submit(() -> {
+                try {
+                    return task.analyze(faceDetectors.get(), personRecognizer);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * A unit of work run on an analysis worker.
+     */
+    public interface AnalysisTask<T> {
+
+        T analyze(FaceDetector faceDetector, PersonRecognizer personRecognizer);
+    }
+}
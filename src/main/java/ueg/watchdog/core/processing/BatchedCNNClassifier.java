@@ -0,0 +1,215 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing;
+
+import org.bytedeco.javacpp.FloatPointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ueg.watchdog.core.exception.WatchDogRuntitimeException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+import static org.bytedeco.javacpp.opencv_dnn.*;
+
+/**
+ * Classifies images with a caffe CNN, running the images of many calls through the network as a single batch.
+ * <p>
+ * A forward pass costs nearly the same for a batch as for a single image, hence the images of concurrent callers are
+ * put in to one batch blob of up to the maximum batch size. The first caller runs the batch, after waiting up to the
+ * latency cap for others to join, and the others wait for its results. The network is only used by one thread at a
+ * time, so a single instance can be shared by all the threads.
+ *
+ * @author Erandi Ganepola
+ */
+public class BatchedCNNClassifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchedCNNClassifier.class);
+
+    private final Net net;
+    private final int maxBatchSize;
+    private final long maxWaitMillis;
+
+    private final Object lock = new Object();
+    private List<Request> pending = new ArrayList<>();
+    private int pendingImages;
+    private boolean running;
+
+    /**
+     * @param prototxt      class path resource of the network definition
+     * @param caffeModel    class path resource of the trained model
+     * @param maxBatchSize  maximum number of images run through the network at once
+     * @param maxWaitMillis maximum time to wait for more images before running a batch which is not full, in
+     *                      milliseconds. With 0, only the images of the callers already waiting are batched together
+     */
+    public BatchedCNNClassifier(String prototxt, String caffeModel, int maxBatchSize, long maxWaitMillis) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+        try {
+            net = new Net();
+            File protobuf = new File(getClass().getResource(prototxt).toURI());
+            File model = new File(getClass().getResource(caffeModel).toURI());
+            Importer importer = createCaffeImporter(protobuf.getAbsolutePath(), model.getAbsolutePath());
+            importer.populateNet(net);
+            importer.close();
+        } catch (Exception e) {
+            logger.error("Unable to load the caffe model {}", caffeModel, e);
+            throw new WatchDogRuntitimeException("Unable to load the caffe model " + caffeModel, e);
+        }
+    }
+
+    /**
+     * @param images images of the same size and type, already prepared for the network
+     * @return class probabilities of each image, in the order of the images. Null for the images of a failed batch
+     */
+    public List<float[]> classify(List<Mat> images) {
+        Request request = new Request(images);
+        if (images.isEmpty()) {
+            return request.results;
+        }
+
+        List<Request> batch;
+        boolean interrupted = false;
+        synchronized (lock) {
+            pending.add(request);
+            pendingImages += images.size();
+            lock.notifyAll();
+            // Waits for the results even if interrupted, as the request can not be taken back from a running batch
+            while (running && !request.done) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (request.done) {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return request.results;
+            }
+
+            // This caller runs the next batch, including the requests of the callers waiting for it
+            running = true;
+            long deadline = System.currentTimeMillis() + maxWaitMillis;
+            long remaining = maxWaitMillis;
+            while (!interrupted && pendingImages < maxBatchSize && remaining > 0) {
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+            pendingImages = 0;
+        }
+
+        try {
+            run(batch);
+        } finally {
+            synchronized (lock) {
+                batch.forEach(r -> r.done = true);
+                running = false;
+                lock.notifyAll();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return request.results;
+    }
+
+    /**
+     * Runs the images of the requests through the network, in batches of up to the maximum batch size
+     */
+    private void run(List<Request> requests) {
+        List<Mat> images = new ArrayList<>();
+        List<float[]> results = new ArrayList<>();
+        requests.forEach(r -> images.addAll(r.images));
+
+        for (int start = 0; start < images.size(); start += maxBatchSize) {
+            List<Mat> batch = images.subList(start, Math.min(images.size(), start + maxBatchSize));
+            try {
+                results.addAll(forward(batch));
+            } catch (Exception e) {
+                logger.error("Error when classifying a batch of {} images", batch.size(), e);
+                batch.forEach(image -> results.add(null));
+            }
+        }
+
+        int index = 0;
+        for (Request request : requests) {
+            for (int i = 0; i < request.images.size(); i++) {
+                request.results.add(results.get(index++));
+            }
+        }
+    }
+
+    private List<float[]> forward(List<Mat> images) {
+        Mat first = images.get(0);
+        int channels = first.channels();
+        int rows = first.rows();
+        int cols = first.cols();
+
+        // Planes of each image are copied in to the blob, laid out as images x channels x rows x cols
+        Blob input = new Blob(new BlobShape(images.size(), channels, rows, cols), CV_32F);
+        Mat floatImage = new Mat();
+        for (int i = 0; i < images.size(); i++) {
+            images.get(i).convertTo(floatImage, CV_32F);
+            for (int c = 0; c < channels; c++) {
+                extractChannel(floatImage, new Mat(rows, cols, CV_32F, input.ptrf(i, c, 0, 0)), c);
+            }
+        }
+
+        net.setBlob(".data", input);
+        net.forward();
+        Blob prob = net.getBlob("prob");
+
+        int classes = (int) (prob.total() / prob.num());
+        List<float[]> results = new ArrayList<>(images.size());
+        for (int i = 0; i < images.size(); i++) {
+            float[] probabilities = new float[classes];
+            prob.ptrf(i, 0, 0, 0).get(probabilities);
+            results.add(probabilities);
+        }
+        logger.debug("Classified a batch of {} images in to {} classes", images.size(), classes);
+        return results;
+    }
+
+    /**
+     * Images of a single call, with their results once the batch they were put in to is run
+     */
+    private static class Request {
+
+        private final List<Mat> images;
+        private final List<float[]> results = new ArrayList<>();
+        private boolean done;
+
+        private Request(List<Mat> images) {
+            this.images = images;
+        }
+    }
+}
@@ -23,18 +23,17 @@
 package ueg.watchdog.core.processing;
 
 import net.coobird.thumbnailator.Thumbnails;
-import org.bytedeco.javacv.Frame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ueg.watchdog.api.FrameBuffer;
 import ueg.watchdog.api.FrameListener;
+import ueg.watchdog.core.FrameManager;
 import ueg.watchdog.core.WatchDog;
 import ueg.watchdog.util.ImageUtils;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * The class responsible for processing and showing live feed
@@ -45,13 +44,9 @@ public class LiveFeedProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(LiveFeedProcessor.class);
 
-    private ExecutorService threadPool;
+    private FrameManager frameManager;
     private FrameListener frameListener;
 
-    public LiveFeedProcessor() {
-        threadPool = Executors.newSingleThreadExecutor();
-    }
-
     public void showLiveFeed(JPanel videoPanel) {
         if (frameListener != null) {
             logger.warn("Attempting to re-run show live feed. Ignoring");
@@ -60,24 +55,32 @@ public class LiveFeedProcessor {
 
         frameListener = new FrameListener() {
             @Override
-            public void frameAdded(Frame frame, long timestamp) {
-                threadPool.submit(() -> {
-                    Graphics graphics = videoPanel.getGraphics();
-                    BufferedImage resizedImage = ImageUtils.getResizedBufferedImage(frame, videoPanel);
-                    SwingUtilities.invokeLater(() -> {
-                        graphics.drawImage(resizedImage, 0, 0, videoPanel);
-                    });
+            public void frameAdded(FrameBuffer frameBuffer, long timestamp) {
+                Graphics graphics = videoPanel.getGraphics();
+                BufferedImage resizedImage = ImageUtils.getResizedBufferedImage(frameBuffer.getFrame(), videoPanel);
+                SwingUtilities.invokeLater(() -> {
+                    graphics.drawImage(resizedImage, 0, 0, videoPanel);
                 });
             }
+
+            @Override
+            public BackpressurePolicy getBackpressurePolicy() {
+                // Only the latest frame is worth showing
+                return BackpressurePolicy.LATEST_ONLY;
+            }
         };
 
         logger.info("Starting live feed processing");
-        WatchDog.getInstance().getFrameManager().addFrameListener(frameListener);
+        frameManager = WatchDog.getInstance().getFrameManager();
+        frameManager.addFrameListener(frameListener);
     }
 
     public void stopLiveFeed() {
         logger.info("Stopping live feed");
-        WatchDog.getInstance().getFrameManager().removeFrameListener(frameListener);
+        if (frameManager != null) {
+            frameManager.removeFrameListener(frameListener);
+        }
+        frameManager = null;
         frameListener = null;
     }
 }
@@ -1,13 +1,17 @@
 package ueg.watchdog.core.processing;
 
+import org.bytedeco.javacpp.opencv_core.Rect;
 import org.bytedeco.javacv.Frame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import ueg.watchdog.Constants;
-import ueg.watchdog.api.*;
+import ueg.watchdog.api.FrameBuffer;
+import ueg.watchdog.api.FrameData;
+import ueg.watchdog.api.FrameListener;
+import ueg.watchdog.api.PersonRecognizedCallback;
+import ueg.watchdog.core.FrameManager;
 import ueg.watchdog.core.WatchDog;
-import ueg.watchdog.core.processing.face.FisherFacesPersonRecognizer;
-import ueg.watchdog.core.processing.face.HaarFaceDetector;
+import ueg.watchdog.core.configuration.WatchDogContext;
+import ueg.watchdog.core.processing.motion.MotionDetector;
 import ueg.watchdog.model.Profile;
 import ueg.watchdog.util.ImageUtils;
 
@@ -15,8 +19,9 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 
 /**
  * @author Erandi Ganepola
@@ -25,17 +30,18 @@ public class PersonDetectionProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(PersonDetectionProcessor.class);
 
-    private ExecutorService threadPool;
+    private final WatchDogContext context;
+    private final AnalysisWorkerPool analysisWorkerPool;
+    private FrameManager frameManager;
     private FrameListener frameListener;
+    private MotionDetector motionDetector;
 
     private int counter = 0;
     private Map<Profile, Integer> recognitions = new HashMap<>();
 
-    private FaceDetector hfd = new HaarFaceDetector();
-    private PersonRecognizer personRecognizer = new FisherFacesPersonRecognizer(Constants.PROFILE_PICTURE_DIR);
-
-    public PersonDetectionProcessor() {
-        threadPool = Executors.newSingleThreadExecutor();
+    public PersonDetectionProcessor(WatchDogContext context, AnalysisWorkerPool analysisWorkerPool) {
+        this.context = context;
+        this.analysisWorkerPool = analysisWorkerPool;
     }
 
     public void showCapturingImage(JPanel videoPanel, PersonRecognizedCallback callback) {
@@ -44,63 +50,111 @@ public class PersonDetectionProcessor {
             return;
         }
 
+        // The frames of the feed arrive in order on the listener's own thread, where the motion is tracked. Only the
+        // frames with motion are handed over to the analysis workers
+        MotionDetector motionDetector = context.isMotionGatingEnabled() ? new MotionDetector() : null;
         frameListener = new FrameListener() {
             @Override
-            public void frameAdded(Frame frame, long timestamp) {
-                threadPool.submit(() -> {
-                    FrameData frameData = hfd.detect(frame);
-                    Graphics graphics = videoPanel.getGraphics();
-                    BufferedImage resizedImage = ImageUtils.getResizedBufferedImage(frameData.getProcessedFrame(), videoPanel);
-                    //UI thread invoking
-                    SwingUtilities.invokeLater(() -> {
-                        graphics.drawImage(resizedImage, 0, 0, videoPanel);
-                    });
-
-                    if (frameListener != null && frameData.getNoOfPeople() > 0) {
-                        counter++;
-                        frameData.getFaces().values().stream()
-                                .map(face -> personRecognizer.recognize(face))
-                                .forEach(profile -> {
-                                    int count = recognitions.computeIfAbsent(profile, key -> 0);
-                                    recognitions.put(profile, ++count);
-                                });
-
-                        if (counter > 10) {
-                            stopCapturingImage();
-
-                            Optional<Profile> profileOptional = recognitions.keySet().stream()
-                                    .filter(Objects::nonNull)
-                                    .sorted(Comparator.comparingInt(p -> recognitions.get(p)).reversed())
-                                    .findFirst();
-                            recognitions.clear();
-
-                            if (profileOptional.isPresent()) {
-                                logger.debug("Profile identified");
-                                callback.onRecognized(profileOptional.get());
-                            } else {
-                                logger.debug("Unable to identify profile");
-                                callback.onNotRecognized();
+            public void frameAdded(FrameBuffer frameBuffer, long timestamp) {
+                Rect motion = motionDetector != null ? motionDetector.detect(frameBuffer.getFrame()) : null;
+                if (motionDetector != null && motion == null) {
+                    showFrame(videoPanel, frameBuffer.getFrame());
+                    return;
+                }
+
+                frameBuffer.retain();
+                try {
+                    analysisWorkerPool.submit((faceDetector, personRecognizer) -> {
+                        // Detected faces refer to the frame buffer. Hence it is released only after the recognition
+                        try {
+                            FrameData frameData = faceDetector.detect(frameBuffer.getFrame(), motion);
+                            showFrame(videoPanel, frameData.getProcessedFrame());
+
+                            if (frameData.getNoOfPeople() > 0) {
+                                List<Profile> profiles = frameData.getFaces().values().stream()
+                                        .map(personRecognizer::recognize)
+                                        .collect(Collectors.toList());
+                                // Frames are analysed by several workers in parallel
+                                synchronized (PersonDetectionProcessor.this) {
+                                    onRecognized(profiles, callback);
+                                }
                             }
+                            return frameData;
+                        } finally {
+                            frameBuffer.release();
                         }
-                    }
-                });
+                    });
+                } catch (RejectedExecutionException e) {
+                    logger.debug("Analysis worker pool is stopped. Skipping frame");
+                    frameBuffer.release();
+                } catch (InterruptedException e) {
+                    frameBuffer.release();
+                    Thread.currentThread().interrupt();
+                }
             }
-        }
 
-        ;
+            @Override
+            public BackpressurePolicy getBackpressurePolicy() {
+                // Analysing stale frames while the workers are busy is of no use
+                return BackpressurePolicy.LATEST_ONLY;
+            }
+        };
 
         logger.info("Starting image capturing");
-        WatchDog.getInstance().
+        this.motionDetector = motionDetector;
+        frameManager = WatchDog.getInstance().getFrameManager();
+        frameManager.addFrameListener(frameListener);
+    }
 
-                getFrameManager().
+    private void showFrame(JPanel videoPanel, Frame frame) {
+        Graphics graphics = videoPanel.getGraphics();
+        BufferedImage resizedImage = ImageUtils.getResizedBufferedImage(frame, videoPanel);
+        //UI thread invoking
+        SwingUtilities.invokeLater(() -> {
+            graphics.drawImage(resizedImage, 0, 0, videoPanel);
+        });
+    }
 
-                addFrameListener(frameListener);
+    private void onRecognized(List<Profile> profiles, PersonRecognizedCallback callback) {
+        if (frameListener == null) {
+            return;
+        }
 
+        counter++;
+        profiles.forEach(profile -> {
+            int count = recognitions.computeIfAbsent(profile, key -> 0);
+            recognitions.put(profile, ++count);
+        });
+
+        if (counter > 10) {
+            stopCapturingImage();
+
+            Optional<Profile> profileOptional = recognitions.keySet().stream()
+                    .filter(Objects::nonNull)
+                    .sorted(Comparator.comparingInt(p -> recognitions.get(p)).reversed())
+                    .findFirst();
+            recognitions.clear();
+
+            if (profileOptional.isPresent()) {
+                logger.debug("Profile identified");
+                callback.onRecognized(profileOptional.get());
+            } else {
+                logger.debug("Unable to identify profile");
+                callback.onNotRecognized();
+            }
+        }
     }
 
-    public void stopCapturingImage() {
+    public synchronized void stopCapturingImage() {
         logger.info("Stopping Capturing Image");
-        WatchDog.getInstance().getFrameManager().removeFrameListener(frameListener);
+        if (frameManager != null) {
+            frameManager.removeFrameListener(frameListener);
+        }
+        if (motionDetector != null) {
+            motionDetector.logStatistics();
+        }
+        motionDetector = null;
+        frameManager = null;
         frameListener = null;
         counter = 0;
     }
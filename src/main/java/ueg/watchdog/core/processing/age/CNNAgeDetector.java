@@ -21,26 +21,24 @@
  */
 package ueg.watchdog.core.processing.age;
 
-import org.bytedeco.javacpp.DoublePointer;
-import org.bytedeco.javacpp.opencv_dnn;
-import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.javacv.Frame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ueg.watchdog.api.AgeDetector;
-import ueg.watchdog.api.FrameData;
-import ueg.watchdog.core.exception.WatchDogRuntitimeException;
+import ueg.watchdog.api.FaceAnalysis;
+import ueg.watchdog.core.configuration.WatchDogContext;
+import ueg.watchdog.core.processing.BatchedCNNClassifier;
 
-import java.io.File;
-import java.net.URISyntaxException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.bytedeco.javacpp.opencv_core.*;
-import static org.bytedeco.javacpp.opencv_dnn.*;
-import static org.bytedeco.javacpp.opencv_imgproc.resize;
+import static ueg.watchdog.Constants.VideoConstants.CNN_BATCH_MAX_WAIT_MILLIS;
+import static ueg.watchdog.Constants.VideoConstants.CNN_MAX_BATCH_SIZE;
 
 /**
- * Age predictor using Convolution Neural Networks
+ * Age predictor using Convolution Neural Networks. The faces are classified in batches, hence a single instance can be
+ * shared by many threads.
  *
  * @author Erandi Ganepola
  */
@@ -48,52 +46,58 @@ public class CNNAgeDetector implements AgeDetector {
 
     private static final Logger logger = LoggerFactory.getLogger(CNNAgeDetector.class);
 
-    private static final String[] AGES = new String[]{"0-2", "4-6", "8-13", "15-20", "25-32", "38-43", "48-53", "60-"};
+    //frames are grabbed with 8 bit depth
+    private static final double NORMALIZE_MAX = Math.pow(2, Frame.DEPTH_UBYTE);
 
-    //Net is the OpenCV class that represents NN
-    private Net ageNet;
+    private static CNNAgeDetector instance;
+
+    private final BatchedCNNClassifier ageNet;
 
     public CNNAgeDetector() {
-        try {
-            ageNet = new Net();
-            File protobuf = new File(getClass().getResource("/caffe/deploy_agenet.prototxt").toURI());
-            File caffeModel = new File(getClass().getResource("/caffe/age_net.caffemodel").toURI());
+        this(CNN_MAX_BATCH_SIZE, CNN_BATCH_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * @param maxBatchSize  maximum number of faces run through the network at once
+     * @param maxWaitMillis maximum time to wait for the faces of other threads to fill a batch, in milliseconds
+     */
+    public CNNAgeDetector(int maxBatchSize, long maxWaitMillis) {
+        ageNet = new BatchedCNNClassifier("/caffe/deploy_agenet.prototxt", "/caffe/age_net.caffemodel",
+                maxBatchSize, maxWaitMillis);
+    }
 
-            //create NN from the caffe model. OpenCV supports caffe framework.
-            Importer importer = createCaffeImporter(protobuf.getAbsolutePath(), caffeModel.getAbsolutePath());
-            importer.populateNet(ageNet);
-            importer.close();
-        } catch (URISyntaxException e) {
-            logger.error("Unable to load the caffe model", e);
-            throw new WatchDogRuntitimeException("Unable to load the caffe model", e);
+    /**
+     * @return the detector shared by all the feeds and video processing workers, for their faces to be classified in
+     * the same batches by a single network
+     */
+    public static synchronized CNNAgeDetector getInstance(WatchDogContext context) {
+        if (instance == null) {
+            instance = new CNNAgeDetector(context.getCnnMaxBatchSize(), context.getCnnBatchMaxWaitMillis());
         }
+        return instance;
     }
 
     @Override
-    public Map<Mat, String> predictAge(FrameData frameData) {
-        Map<Mat, String> ageMap = new HashMap<>();
-
-        for (Map.Entry<CvRect, Mat> face : frameData.getFaces().entrySet()) {
-            try {
-                Mat resizedMat = new Mat();
-                resize(face.getValue(), resizedMat, new Size(256, 256));
-                normalize(resizedMat, resizedMat, 0, Math.pow(2, frameData.getOriginalFrame().imageDepth),
-                        NORM_MINMAX, -1, null);
-
-                opencv_dnn.Blob inputBlob = new opencv_dnn.Blob(resizedMat);
-                ageNet.setBlob(".data", inputBlob);
-                ageNet.forward();
-                //output layer
-                opencv_dnn.Blob prob = ageNet.getBlob("prob");
+    public void predictAge(FaceAnalysis[] faces) {
+        List<Mat> inputs = new ArrayList<>(faces.length);
+        for (FaceAnalysis face : faces) {
+            inputs.add(face.getFace().getNormalized(false, 256, 256, NORMALIZE_MAX));
+        }
 
-                DoublePointer pointer = new DoublePointer(new double[1]);
-                Point max = new Point();
-                minMaxLoc(prob.matRefConst(), null, pointer, null, max, null);
-                ageMap.put(face.getValue(), AGES[max.x()]);
-            } catch (Exception e) {
-                logger.error("Error when processing gender", e);
+        List<float[]> results = ageNet.classify(inputs);
+        for (int i = 0; i < faces.length; i++) {
+            float[] probabilities = results.get(i);
+            if (probabilities == null) {
+                logger.warn("Age of a face could not be predicted");
+                continue;
+            }
+            int max = 0;
+            for (int j = 1; j < probabilities.length && j < AGE_GROUPS.length; j++) {
+                if (probabilities[j] > probabilities[max]) {
+                    max = j;
+                }
             }
+            faces[i].setAge(AGE_GROUPS[max], probabilities[max]);
         }
-        return ageMap;
     }
 }
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing.face;
+
+import ueg.watchdog.api.AgeDetector;
+import ueg.watchdog.api.FaceAnalysis;
+import ueg.watchdog.api.GenderDetector;
+import ueg.watchdog.api.GenderDetector.Gender;
+import ueg.watchdog.api.PersonRecognizer;
+import ueg.watchdog.model.Profile;
+
+/**
+ * Classifies the faces of a frame with all the classifiers, each filling in its results in the {@link FaceAnalysis} of
+ * each face.
+ * <p>
+ * The faces are recognized first. The gender and age of a recognized person are taken from the profile, with the
+ * fixed {@link FaceAnalysis#PROFILE_CONFIDENCE}, and the age as one of the {@link AgeDetector#AGE_GROUPS} like the
+ * detected ages. Hence the gender and age detectors only run for the faces not recognized, or with the details missing
+ * in the profile.
+ *
+ * @author Erandi Ganepola
+ */
+public class FaceClassifier {
+
+    private final GenderDetector genderDetector;
+    private final AgeDetector ageDetector;
+    private final PersonRecognizer personRecognizer;
+
+    public FaceClassifier(GenderDetector genderDetector, AgeDetector ageDetector, PersonRecognizer personRecognizer) {
+        this.genderDetector = genderDetector;
+        this.ageDetector = ageDetector;
+        this.personRecognizer = personRecognizer;
+    }
+
+    /**
+     * @param faces faces of a frame, in the order of the results
+     */
+    public void classify(FaceAnalysis[] faces) {
+        if (faces.length == 0) {
+            return;
+        }
+        personRecognizer.recognize(faces);
+
+        int ungendered = 0;
+        int unaged = 0;
+        for (FaceAnalysis face : faces) {
+            Profile profile = face.getProfile();
+            if (profile != null) {
+                Gender gender = toGender(profile.getGender());
+                if (gender != null) {
+                    face.setGender(gender, FaceAnalysis.PROFILE_CONFIDENCE);
+                }
+                Integer age = profile.getAge();
+                if (age != null) {
+                    face.setAge(AgeDetector.toAgeGroup(age), FaceAnalysis.PROFILE_CONFIDENCE);
+                }
+            }
+            ungendered += face.getGender() == null ? 1 : 0;
+            unaged += face.getAge() == null ? 1 : 0;
+        }
+
+        if (ungendered > 0) {
+            genderDetector.predictGender(ungendered == faces.length ? faces : filter(faces, ungendered, true));
+        }
+        if (unaged > 0) {
+            ageDetector.predictAge(unaged == faces.length ? faces : filter(faces, unaged, false));
+        }
+    }
+
+    /**
+     * @return the faces without a gender, or without an age
+     */
+    private static FaceAnalysis[] filter(FaceAnalysis[] faces, int count, boolean gender) {
+        FaceAnalysis[] filtered = new FaceAnalysis[count];
+        int i = 0;
+        for (FaceAnalysis face : faces) {
+            if ((gender ? face.getGender() : face.getAge()) == null) {
+                filtered[i++] = face;
+            }
+        }
+        return filtered;
+    }
+
+    private static Gender toGender(String gender) {
+        if ("Male".equalsIgnoreCase(gender)) {
+            return Gender.MALE;
+        } else if ("Female".equalsIgnoreCase(gender)) {
+            return Gender.FEMALE;
+        }
+        return null;
+    }
+}
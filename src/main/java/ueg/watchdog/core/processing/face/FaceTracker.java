@@ -0,0 +1,199 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing.face;
+
+import org.bytedeco.javacpp.opencv_core.CvRect;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tracks faces across the frames of a video by associating each detected face with the face of the previous frames it
+ * overlaps the most (intersection over union). Each track carries the result of analysing its face, so that the
+ * expensive classifiers need to run only when a track is born and on periodic re-checks.
+ * <p>
+ * Keeps state between frames, hence an instance has to be fed the frames of a single video in order.
+ *
+ * @param <T> type of the analysis result kept per track
+ * @author Erandi Ganepola
+ */
+public class FaceTracker<T> {
+
+    private final double minOverlap;
+    private final int maxMissedFrames;
+    private final int recheckInterval;
+
+    private final List<Track<T>> tracks = new ArrayList<>();
+    private int nextTrackId = 1;
+
+    /**
+     * @param minOverlap      minimum intersection over union for a face to continue a track
+     * @param maxMissedFrames number of frames a track is kept without a matching face
+     * @param recheckInterval number of frames after which the face of a track has to be analysed again
+     */
+    public FaceTracker(double minOverlap, int maxMissedFrames, int recheckInterval) {
+        this.minOverlap = minOverlap;
+        this.maxMissedFrames = maxMissedFrames;
+        this.recheckInterval = recheckInterval;
+    }
+
+    /**
+     * Associates the faces of the next frame with the existing tracks, starting new tracks for unmatched faces.
+     *
+     * @param faces faces detected in the next frame
+     * @return the track of each face, in the order of the given faces
+     */
+    public List<Track<T>> update(List<CvRect> faces) {
+        List<Match> candidates = new ArrayList<>();
+        for (int i = 0; i < faces.size(); i++) {
+            for (int j = 0; j < tracks.size(); j++) {
+                double overlap = tracks.get(j).overlap(faces.get(i));
+                if (overlap >= minOverlap) {
+                    candidates.add(new Match(i, j, overlap));
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingDouble((Match match) -> match.overlap).reversed());
+
+        // Greedily pair the most overlapping faces and tracks first
+        List<Track<T>> faceTracks = new ArrayList<>(faces.size());
+        for (int i = 0; i < faces.size(); i++) {
+            faceTracks.add(null);
+        }
+        boolean[] matchedTracks = new boolean[tracks.size()];
+        for (Match match : candidates) {
+            if (faceTracks.get(match.face) == null && !matchedTracks[match.track]) {
+                faceTracks.set(match.face, tracks.get(match.track));
+                matchedTracks[match.track] = true;
+            }
+        }
+
+        for (int j = 0; j < matchedTracks.length; j++) {
+            if (!matchedTracks[j]) {
+                tracks.get(j).missedFrames++;
+            }
+        }
+        Iterator<Track<T>> iterator = tracks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().missedFrames > maxMissedFrames) {
+                iterator.remove();
+            }
+        }
+
+        for (int i = 0; i < faces.size(); i++) {
+            Track<T> track = faceTracks.get(i);
+            if (track == null) {
+                track = new Track<>(nextTrackId++, recheckInterval);
+                tracks.add(track);
+                faceTracks.set(i, track);
+            } else {
+                track.framesSinceAnalysis++;
+            }
+            track.moveTo(faces.get(i));
+        }
+        return faceTracks;
+    }
+
+    /**
+     * @return number of tracks currently alive
+     */
+    public int getTrackCount() {
+        return tracks.size();
+    }
+
+    /**
+     * A face followed across frames.
+     */
+    public static class Track<T> {
+
+        private final int id;
+        private final int recheckInterval;
+        private int x;
+        private int y;
+        private int width;
+        private int height;
+        private int missedFrames;
+        private int framesSinceAnalysis;
+        private T result;
+
+        private Track(int id, int recheckInterval) {
+            this.id = id;
+            this.recheckInterval = recheckInterval;
+        }
+
+        private void moveTo(CvRect rect) {
+            x = rect.x();
+            y = rect.y();
+            width = rect.width();
+            height = rect.height();
+            missedFrames = 0;
+        }
+
+        private double overlap(CvRect rect) {
+            int left = Math.max(x, rect.x());
+            int top = Math.max(y, rect.y());
+            int right = Math.min(x + width, rect.x() + rect.width());
+            int bottom = Math.min(y + height, rect.y() + rect.height());
+            if (right <= left || bottom <= top) {
+                return 0;
+            }
+            double intersection = (double) (right - left) * (bottom - top);
+            double union = (double) width * height + (double) rect.width() * rect.height() - intersection;
+            return intersection / union;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return true if the face of this track has never been analysed or is due for a re-check
+         */
+        public boolean needsAnalysis() {
+            return result == null || framesSinceAnalysis >= recheckInterval;
+        }
+
+        public T getResult() {
+            return result;
+        }
+
+        public void setResult(T result) {
+            this.result = result;
+            this.framesSinceAnalysis = 0;
+        }
+    }
+
+    private static class Match {
+
+        private final int face;
+        private final int track;
+        private final double overlap;
+
+        private Match(int face, int track, double overlap) {
+            this.face = face;
+            this.track = track;
+            this.overlap = overlap;
+        }
+    }
+}
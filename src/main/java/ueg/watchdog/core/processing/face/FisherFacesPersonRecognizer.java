@@ -26,14 +26,30 @@ import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ueg.watchdog.Constants;
+import ueg.watchdog.api.FaceAnalysis;
 import ueg.watchdog.api.PersonRecognizer;
+import ueg.watchdog.api.PreparedFace;
 import ueg.watchdog.model.Profile;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static org.bytedeco.javacpp.opencv_core.*;
@@ -42,9 +58,20 @@ import static org.bytedeco.javacpp.opencv_face.createFisherFaceRecognizer;
 import static org.bytedeco.javacpp.opencv_imgcodecs.CV_LOAD_IMAGE_GRAYSCALE;
 import static org.bytedeco.javacpp.opencv_imgcodecs.cvLoadImage;
 import static org.bytedeco.javacpp.opencv_imgproc.*;
+import static ueg.watchdog.Constants.MODEL_MANIFEST_SUFFIX;
+import static ueg.watchdog.Constants.PROFILE_MODEL_CHECK_SECONDS;
 
 /**
  * Face recognizer using fisher faces
+ * <p>
+ * The trained model is saved along with a hash of the manifest of the training images, which lists the path, size and
+ * modification time of each image. At start up, the saved model is loaded instead of being trained again if the hash
+ * still matches. If no model was saved, it is trained before the constructor returns. Otherwise, and whenever the
+ * training images change afterwards, the model is trained again in the background and replaces the current one once
+ * trained.
+ * <p>
+ * The trained model is only read when recognizing, hence a single instance, {@link #getInstance()}, is shared by all
+ * the threads.
  *
  * @author Erandi Ganepola
  */
@@ -52,11 +79,150 @@ public class FisherFacesPersonRecognizer implements PersonRecognizer {
 
     private static final Logger logger = LoggerFactory.getLogger(FisherFacesPersonRecognizer.class);
 
-    private boolean initialized = false;
-    private FaceRecognizer faceRecognizer;
+    private static FisherFacesPersonRecognizer instance;
+
+    private final String trainingImagesDir;
+    private final Path modelFile;
+    private final Path manifestFile;
+    private final ScheduledExecutorService trainer;
+    private volatile FaceRecognizer faceRecognizer;
+    private String manifestHash;
+
+    /**
+     * @param trainingImagesDir directory with a sub directory of images for each profile, named by the profile id
+     * @param modelFile         file the trained model is saved to
+     */
+    public FisherFacesPersonRecognizer(String trainingImagesDir, String modelFile) {
+        this.trainingImagesDir = trainingImagesDir;
+        this.modelFile = Paths.get(modelFile);
+        this.manifestFile = Paths.get(modelFile + MODEL_MANIFEST_SUFFIX);
+
+        trainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fisher-faces-trainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (!loadModel()) {
+            if (faceRecognizer == null) {
+                // Nothing to recognize faces with yet, hence trained before any face is given to recognize
+                trainIfChanged();
+            } else {
+                trainer.submit(this::trainIfChanged);
+            }
+        }
+        trainer.scheduleWithFixedDelay(this::trainIfChanged, PROFILE_MODEL_CHECK_SECONDS, PROFILE_MODEL_CHECK_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the recognizer of the profile pictures, shared by all the threads
+     */
+    public static synchronized FisherFacesPersonRecognizer getInstance() {
+        if (instance == null) {
+            instance = new FisherFacesPersonRecognizer(Constants.PROFILE_PICTURE_DIR, Constants.PROFILE_MODEL_FILE);
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the saved model if it was trained with the current training images.
+     *
+     * @return true if the saved model is up to date
+     */
+    private boolean loadModel() {
+        try {
+            String currentHash = hashManifest();
+            if (!Files.exists(modelFile) || !Files.exists(manifestFile)) {
+                logger.info("No saved fisher faces model found");
+                return false;
+            }
+
+            // A model of older images is still used until the new one is trained
+            FaceRecognizer recognizer = createFisherFaceRecognizer();
+            recognizer.load(modelFile.toAbsolutePath().toString());
+            faceRecognizer = recognizer;
+
+            String savedHash = new String(Files.readAllBytes(manifestFile), StandardCharsets.UTF_8).trim();
+            if (!savedHash.equals(currentHash)) {
+                logger.info("Training images changed since the fisher faces model was saved");
+                return false;
+            }
+            manifestHash = currentHash;
+            logger.info("Loaded the saved fisher faces model");
+            return true;
+        } catch (Exception e) {
+            logger.warn("Unable to load the saved fisher faces model", e);
+            return false;
+        }
+    }
+
+    /**
+     * Trains the model again if the training images changed since it was trained, and saves it. Run by the trainer
+     * thread, or by the constructor if there's no saved model, before the trainer runs it.
+     */
+    private void trainIfChanged() {
+        try {
+            String currentHash = hashManifest();
+            if (currentHash.equals(manifestHash)) {
+                return;
+            }
+
+            // Not retried until the images change again if the training fails
+            manifestHash = currentHash;
+            FaceRecognizer recognizer = train();
+            faceRecognizer = recognizer;
 
-    public FisherFacesPersonRecognizer(String trainingImagesDir) {
-        //        FaceDetector faceDetector = new HaarFaceDetector();
+            // Saved to a temporary file first, for a model to never be read half written. The extension tells OpenCV
+            // the format to save in
+            Files.createDirectories(modelFile.toAbsolutePath().getParent());
+            String fileName = modelFile.getFileName().toString();
+            Path tempFile = modelFile.resolveSibling("tmp-" + fileName);
+            recognizer.save(tempFile.toAbsolutePath().toString());
+            Files.move(tempFile, modelFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.write(manifestFile, currentHash.getBytes(StandardCharsets.UTF_8));
+            logger.info("Saved the fisher faces model trained with the current training images");
+        } catch (Exception e) {
+            logger.error("Error when training the fisher faces model", e);
+        }
+    }
+
+    /**
+     * @return hash of the path, size and modification time of each training image
+     */
+    private String hashManifest() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unable to hash the training images", e);
+        }
+
+        File[] imageDirs = new File(trainingImagesDir).listFiles(File::isDirectory);
+        if (imageDirs != null) {
+            Arrays.sort(imageDirs, Comparator.comparing(File::getName));
+            for (File imageDir : imageDirs) {
+                File[] imageFiles = imageDir.listFiles();
+                if (imageFiles == null) {
+                    continue;
+                }
+                Arrays.sort(imageFiles, Comparator.comparing(File::getName));
+                for (File imageFile : imageFiles) {
+                    String entry = imageDir.getName() + "/" + imageFile.getName() + ":" + imageFile.length() + ":"
+                            + imageFile.lastModified() + "\n";
+                    digest.update(entry.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+        return hash.toString();
+    }
+
+    private FaceRecognizer train() {
         OpenCVFrameConverter.ToIplImage iplImageConverter = new OpenCVFrameConverter.ToIplImage();
         OpenCVFrameConverter.ToMat matImageConverter = new OpenCVFrameConverter.ToMat();
 
@@ -76,17 +242,10 @@ public class FisherFacesPersonRecognizer implements PersonRecognizer {
                         Frame frame = iplImageConverter.convert(image);
 
                         List<Mat> mats = faceLabelMap.computeIfAbsent(profileId, key -> new ArrayList<>());
-
-                        //                        FrameData frameData = faceDetector.detect(frame);
-                        //                        logger.debug("Found {} people in image : {}-{}", frameData.getNoOfPeople(), imageDir.getName(), imageFile.getName());
-                        //                        frameData.getFaces().values().stream()
                         Mat mat = matImageConverter.convert(frame);
-                        //                                .map(mat -> {
                         resize(mat, mat, new Size(256, 256));
                         normalize(mat, mat, 0, Math.pow(2, mat.depth()), NORM_MINMAX, -1, null);
                         mats.add(mat);
-                        //                            return mat;
-                        //                        }).forEach(mats::add);
                     });
                 }
             });
@@ -109,24 +268,37 @@ public class FisherFacesPersonRecognizer implements PersonRecognizer {
             }
         }
 
-        faceRecognizer = createFisherFaceRecognizer();
-        faceRecognizer.train(images, labels);
+        FaceRecognizer recognizer = createFisherFaceRecognizer();
+        recognizer.train(images, labels);
+        logger.info("Trained fisher faces model with {} images of {} people", size, faceLabelMap.size());
+        return recognizer;
     }
 
     @Override
     public Profile recognize(Mat face) {
-        Mat preparedMat = new Mat();
-        cvtColor(face, preparedMat, COLOR_BGR2GRAY);
-        resize(preparedMat, preparedMat, new Size(256, 256));
-        normalize(preparedMat, preparedMat, 0, Math.pow(2, preparedMat.depth()), NORM_MINMAX, -1, null);
+        FaceAnalysis analysis = new FaceAnalysis(null, face);
+        recognize(new FaceAnalysis[]{analysis});
+        return analysis.getProfile();
+    }
 
+    @Override
+    public void recognize(FaceAnalysis[] faces) {
+        FaceRecognizer faceRecognizer = this.faceRecognizer;
+        if (faceRecognizer == null) {
+            logger.debug("Fisher faces model is not trained yet");
+            return;
+        }
         int[] label = new int[]{-1};
         double[] confidence = new double[]{0.0};
-        faceRecognizer.predict(preparedMat, label, confidence);
-        logger.debug("Prediction is : {}, confidence : {}", label[0], confidence[0]);
-        if (confidence[0] < 12) {
-            return null;
+        for (FaceAnalysis face : faces) {
+            PreparedFace preparedFace = face.getFace();
+            Mat preparedMat = preparedFace.getNormalized(true, 256, 256, Math.pow(2, preparedFace.getGray().depth()));
+
+            faceRecognizer.predict(preparedMat, label, confidence);
+            logger.debug("Prediction is : {}, confidence : {}", label[0], confidence[0]);
+            if (confidence[0] >= 12) {
+                face.setProfile(Profile.getCachedProfileById(label[0]), confidence[0]);
+            }
         }
-        return Profile.getProfileById(label[0]);
     }
 }
@@ -37,12 +37,13 @@ import java.io.File;
 import static org.bytedeco.javacpp.helper.opencv_objdetect.cvHaarDetectObjects;
 import static org.bytedeco.javacpp.opencv_core.*;
 import static org.bytedeco.javacpp.opencv_core.cvPoint;
-import static org.bytedeco.javacpp.opencv_imgproc.CV_AA;
-import static org.bytedeco.javacpp.opencv_imgproc.cvRectangle;
+import static org.bytedeco.javacpp.opencv_imgproc.*;
 import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_DO_CANNY_PRUNING;
 
 /**
- * Face detector using haar classifier cascades
+ * Face detector using haar classifier cascades. The cascade can be run on a downscaled gray copy of the frame, which
+ * cuts the cost of detection roughly by the square of the scale. Detected faces are always cropped from the full
+ * resolution frame.
  *
  * @author Erandi Ganepola
  */
@@ -55,7 +56,29 @@ public class HaarFaceDetector implements FaceDetector {
     private OpenCVFrameConverter.ToIplImage iplImageConverter;
     private OpenCVFrameConverter.ToMat toMatConverter;
 
+    private final double detectionScale;
+    private opencv_core.IplImage scaledImage;
+    private opencv_core.IplImage scaledGrayImage;
+    /**
+     * Copy of the last frame the detections are drawn on, reused between detections
+     */
+    private opencv_core.IplImage processedImage;
+
     public HaarFaceDetector() {
+        this(1.0);
+    }
+
+    /**
+     * @param detectionScale scale of the image the cascade is run on, relative to the frame. Greater than 0 and at
+     *                       most 1
+     * @throws IllegalArgumentException if the scale is out of range
+     */
+    public HaarFaceDetector(double detectionScale) {
+        if (!(detectionScale > 0 && detectionScale <= 1.0)) {
+            throw new IllegalArgumentException("Detection scale should be greater than 0 and at most 1 : "
+                    + detectionScale);
+        }
+        this.detectionScale = detectionScale;
         iplImageConverter = new OpenCVFrameConverter.ToIplImage();
         toMatConverter = new OpenCVFrameConverter.ToMat();
 
@@ -71,17 +94,51 @@ public class HaarFaceDetector implements FaceDetector {
     }
 
     @Override
-    public synchronized FrameData detect(Frame frame) {
+    public FrameData detect(Frame frame) {
+        return detect(frame, null);
+    }
+
+    @Override
+    public synchronized FrameData detect(Frame frame, Rect region) {
         FrameData frameData = new FrameData(frame);
 
+        /*
+         * The given frame may be shared with other parties. Hence the detections are drawn on a copy of it, leaving the
+         * original frame untouched.
+         */
         opencv_core.IplImage iplImage = iplImageConverter.convert(frame);
-        frameData.setOriginalIplImage(cvCloneImage(iplImage));
+        frameData.setOriginalIplImage(iplImage);
+        opencv_core.IplImage processedIplImage = toProcessedImage(iplImage);
 
         /*
          * return a CV Sequence (kind of a list) with coordinates of rectangle face area.
          * (returns coordinates of left top corner & right bottom corner)
+         * When searching a region, the coordinates are relative to the region
          */
-        opencv_core.CvSeq detectObjects = cvHaarDetectObjects(iplImage, haarClassifierCascade, storage, 1.5, 3, CV_HAAR_DO_CANNY_PRUNING);
+        int offsetX = 0;
+        int offsetY = 0;
+        int width = iplImage.width();
+        int height = iplImage.height();
+        if (region != null) {
+            offsetX = region.x();
+            offsetY = region.y();
+            width = region.width();
+            height = region.height();
+            cvSetImageROI(iplImage, cvRect(offsetX, offsetY, width, height));
+        }
+        boolean scaled = detectionScale < 1.0;
+        opencv_core.IplImage detectionImage = iplImage;
+        if (scaled) {
+            // The scaled copy only holds the region. Hence the region of the frame isn't needed anymore
+            detectionImage = toScaledGrayImage(iplImage, width, height);
+            if (region != null) {
+                cvResetImageROI(iplImage);
+            }
+        }
+        opencv_core.CvSeq detectObjects = cvHaarDetectObjects(detectionImage, haarClassifierCascade, storage, 1.5, 3, CV_HAAR_DO_CANNY_PRUNING);
+        if (!scaled && region != null) {
+            cvResetImageROI(iplImage);
+        }
         frameData.setDetectionResults(detectObjects);
 
         int numberOfPeople = detectObjects.total();
@@ -92,20 +149,77 @@ public class HaarFaceDetector implements FaceDetector {
 
         for (int i = 0; i < numberOfPeople; i++) {
             opencv_core.CvRect rect = new opencv_core.CvRect(cvGetSeqElem(detectObjects, i));
+            if (scaled) {
+                rect = toFrameRect(rect, offsetX, offsetY, iplImage.width(), iplImage.height());
+            } else if (region != null) {
+                rect = cvRect(rect.x() + offsetX, rect.y() + offsetY, rect.width(), rect.height());
+            }
             Mat croppedMat = matImage.apply(new Rect(rect.x(), rect.y(), rect.width(), rect.height()));
 
             frameData.addFace(rect, croppedMat);
 
-            cvRectangle(iplImage, cvPoint(rect.x(), rect.y()), cvPoint(rect.width() + rect.x(), rect.height() + rect.y()),
+            cvRectangle(processedIplImage, cvPoint(rect.x(), rect.y()), cvPoint(rect.width() + rect.x(), rect.height() + rect.y()),
                     CvScalar.RED, 2, CV_AA, 0);
         }
-        frameData.setProcessedIplImage(iplImage);
+        frameData.setProcessedIplImage(processedIplImage);
 
-        Frame processedFrame = iplImageConverter.convert(iplImage);
+        Frame processedFrame = iplImageConverter.convert(processedIplImage);
         frameData.setProcessedFrame(processedFrame);
         return frameData;
     }
 
+    /**
+     * Copies the given image to the image the detections are drawn on, only allocated again if the frame size changes.
+     * Hence it is only valid until the next detection.
+     */
+    private opencv_core.IplImage toProcessedImage(opencv_core.IplImage image) {
+        if (processedImage == null || processedImage.width() != image.width()
+                || processedImage.height() != image.height() || processedImage.nChannels() != image.nChannels()
+                || processedImage.depth() != image.depth()) {
+            if (processedImage != null) {
+                processedImage.release();
+            }
+            processedImage = opencv_core.IplImage.create(image.width(), image.height(), image.depth(), image.nChannels());
+        }
+        cvCopy(image, processedImage);
+        return processedImage;
+    }
+
+    /**
+     * Downscales the given image, or its region of interest, to a gray image reused between detections.
+     */
+    private opencv_core.IplImage toScaledGrayImage(opencv_core.IplImage image, int width, int height) {
+        int scaledWidth = Math.max(1, (int) Math.round(width * detectionScale));
+        int scaledHeight = Math.max(1, (int) Math.round(height * detectionScale));
+        if (scaledImage == null || scaledImage.width() != scaledWidth || scaledImage.height() != scaledHeight
+                || scaledImage.nChannels() != image.nChannels()) {
+            if (scaledImage != null) {
+                scaledImage.release();
+                scaledGrayImage.release();
+            }
+            scaledImage = opencv_core.IplImage.create(scaledWidth, scaledHeight, IPL_DEPTH_8U, image.nChannels());
+            scaledGrayImage = opencv_core.IplImage.create(scaledWidth, scaledHeight, IPL_DEPTH_8U, 1);
+        }
+
+        cvResize(image, scaledImage, CV_INTER_AREA);
+        if (image.nChannels() == 1) {
+            return scaledImage;
+        }
+        cvCvtColor(scaledImage, scaledGrayImage, CV_BGR2GRAY);
+        return scaledGrayImage;
+    }
+
+    /**
+     * Maps a rectangle detected on the scaled image back to the coordinates of the full resolution frame.
+     */
+    private opencv_core.CvRect toFrameRect(opencv_core.CvRect rect, int offsetX, int offsetY, int frameWidth, int frameHeight) {
+        int x = Math.max(0, offsetX + (int) (rect.x() / detectionScale));
+        int y = Math.max(0, offsetY + (int) (rect.y() / detectionScale));
+        int width = Math.min(frameWidth - x, (int) Math.round(rect.width() / detectionScale));
+        int height = Math.min(frameHeight - y, (int) Math.round(rect.height() / detectionScale));
+        return cvRect(x, y, width, height);
+    }
+
     @Override
     public void finalize() {
         cvReleaseMemStorage(storage);
@@ -1,24 +1,23 @@
 package ueg.watchdog.core.processing.gender;
 
-import org.bytedeco.javacpp.indexer.Indexer;
-import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.javacv.Frame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import ueg.watchdog.api.FrameData;
+import ueg.watchdog.api.FaceAnalysis;
 import ueg.watchdog.api.GenderDetector;
-import ueg.watchdog.core.exception.WatchDogRuntitimeException;
+import ueg.watchdog.core.processing.BatchedCNNClassifier;
 
-import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.bytedeco.javacpp.opencv_core.*;
-import static org.bytedeco.javacpp.opencv_dnn.*;
-import static org.bytedeco.javacpp.opencv_imgproc.resize;
+import static ueg.watchdog.Constants.VideoConstants.CNN_BATCH_MAX_WAIT_MILLIS;
+import static ueg.watchdog.Constants.VideoConstants.CNN_MAX_BATCH_SIZE;
 
 /**
  * The class responsible for recognizing gender. This class use the concept of CNN (Convolution Neural Networks) to
- * identify the gender of a detected face.
+ * identify the gender of a detected face. The faces are classified in batches, hence a single instance can be shared
+ * by many threads.
  *
  * @author Erandi Ganepola
  */
@@ -26,51 +25,46 @@ public class CNNGenderDetector implements GenderDetector {
 
     private static final Logger logger = LoggerFactory.getLogger(CNNGenderDetector.class);
 
-    private Net genderNet;
+    //frames are grabbed with 8 bit depth
+    private static final double NORMALIZE_MAX = Math.pow(2, Frame.DEPTH_UBYTE);
+
+    private final BatchedCNNClassifier genderNet;
 
     public CNNGenderDetector() {
-        try {
-            genderNet = new Net();
-            File protobuf = new File(getClass().getResource("/caffe/deploy_gendernet.prototxt").toURI());
-            File caffeModel = new File(getClass().getResource("/caffe/gender_net.caffemodel").toURI());
-            Importer importer = createCaffeImporter(protobuf.getAbsolutePath(), caffeModel.getAbsolutePath());
-            importer.populateNet(genderNet);
-            importer.close();
-        } catch (Exception e) {
-            logger.error("Error reading prototxt", e);
-            throw new WatchDogRuntitimeException("Unable to start CNNGenderDetector", e);
-        }
+        this(CNN_MAX_BATCH_SIZE, CNN_BATCH_MAX_WAIT_MILLIS);
     }
 
-    @Override
-    public Map<Mat, Gender> predictGender(FrameData frameData) {
-        Map<Mat, Gender> genderMap = new HashMap<>();
-
-        for (Map.Entry<CvRect, Mat> face : frameData.getFaces().entrySet()) {
-            try {
-                Mat croppedMat = new Mat();
-                resize(face.getValue(), croppedMat, new Size(256, 256));
-                normalize(croppedMat, croppedMat, 0, Math.pow(2, frameData.getOriginalFrame().imageDepth),
-                        NORM_MINMAX, -1, null);
+    /**
+     * @param maxBatchSize  maximum number of faces run through the network at once
+     * @param maxWaitMillis maximum time to wait for the faces of other threads to fill a batch, in milliseconds
+     */
+    public CNNGenderDetector(int maxBatchSize, long maxWaitMillis) {
+        genderNet = new BatchedCNNClassifier("/caffe/deploy_gendernet.prototxt", "/caffe/gender_net.caffemodel",
+                maxBatchSize, maxWaitMillis);
+    }
 
-                Blob inputBlob = new Blob(croppedMat);
-                genderNet.setBlob(".data", inputBlob);
-                genderNet.forward();
-                Blob prob = genderNet.getBlob("prob");
+    @Override
+    public void predictGender(FaceAnalysis[] faces) {
+        List<Mat> inputs = new ArrayList<>(faces.length);
+        for (FaceAnalysis face : faces) {
+            inputs.add(face.getFace().getNormalized(false, 256, 256, NORMALIZE_MAX));
+        }
 
-                Indexer indexer = prob.matRefConst().createIndexer();
-                logger.debug("CNN results {},{}", indexer.getDouble(0, 0), indexer.getDouble(0, 1));
-                if (indexer.getDouble(0, 0) > indexer.getDouble(0, 1)) {
-                    logger.debug("Male detected");
-                    genderMap.put(face.getValue(), Gender.MALE);
-                } else {
-                    logger.debug("Female detected");
-                    genderMap.put(face.getValue(), Gender.FEMALE);
-                }
-            } catch (Exception e) {
-                logger.error("Error when processing gender", e);
+        List<float[]> results = genderNet.classify(inputs);
+        for (int i = 0; i < faces.length; i++) {
+            float[] probabilities = results.get(i);
+            if (probabilities == null) {
+                logger.warn("Gender of a face could not be predicted");
+                continue;
+            }
+            logger.debug("CNN results {},{}", probabilities[0], probabilities[1]);
+            if (probabilities[0] > probabilities[1]) {
+                logger.debug("Male detected");
+                faces[i].setGender(Gender.MALE, probabilities[0]);
+            } else {
+                logger.debug("Female detected");
+                faces[i].setGender(Gender.FEMALE, probabilities[1]);
             }
         }
-        return genderMap;
     }
 }
@@ -21,21 +21,17 @@
  */
 package ueg.watchdog.core.processing.gender;
 
-import org.bytedeco.javacpp.opencv_core;
 import org.bytedeco.javacpp.opencv_core.Mat;
 import org.bytedeco.javacpp.opencv_face;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import ueg.watchdog.api.FrameData;
+import ueg.watchdog.api.FaceAnalysis;
 import ueg.watchdog.api.GenderDetector;
 import ueg.watchdog.core.exception.WatchDogRuntitimeException;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
 
 import static org.bytedeco.javacpp.opencv_face.createFisherFaceRecognizer;
-import static org.bytedeco.javacpp.opencv_imgproc.*;
 
 /**
  * Gender detection using fisher faces algorithm
@@ -63,22 +59,16 @@ public class FisherFacesGenderDetector implements GenderDetector {
     }
 
     @Override
-    public Map<Mat, Gender> predictGender(FrameData frameData) {
-        Map<Mat, Gender> genderMap = new HashMap<>();
-
-        for (Map.Entry<opencv_core.CvRect, Mat> face : frameData.getFaces().entrySet()) {
-            Mat croppedMat = new Mat();
-            cvtColor(face.getValue(), croppedMat, COLOR_BGR2GRAY);
+    public void predictGender(FaceAnalysis[] faces) {
+        int[] label = new int[]{-1};
+        double[] confidence = new double[]{0.0};
+        for (FaceAnalysis face : faces) {
             //face should be 92,112px size
-            resize(croppedMat, croppedMat, new opencv_core.Size(92, 112));
+            Mat croppedMat = face.getFace().getResized(true, 92, 112);
 
-            int[] label = new int[]{-1};
-            double[] confidence = new double[]{0.0};
             genderRecognizer.predict(croppedMat, label, confidence);
             logger.debug("Prediction is : {}, confidence : {}", label[0], confidence[0]);
-            genderMap.put(face.getValue(), label[0] == 0 ? Gender.FEMALE : Gender.MALE);
+            face.setGender(label[0] == 0 ? Gender.FEMALE : Gender.MALE, confidence[0]);
         }
-        return genderMap;
-
     }
 }
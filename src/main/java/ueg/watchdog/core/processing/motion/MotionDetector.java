@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing.motion;
+
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+import static org.bytedeco.javacpp.opencv_imgproc.*;
+import static ueg.watchdog.Constants.MotionConstants.*;
+
+/**
+ * Detects motion in a sequence of frames by subtracting a running average background from a downscaled gray copy of
+ * each frame. Keeps the background between frames, hence an instance has to be fed the frames of a single video in
+ * order, from a single thread.
+ *
+ * @author Erandi Ganepola
+ */
+public class MotionDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(MotionDetector.class);
+
+    private final OpenCVFrameConverter.ToMat toMatConverter = new OpenCVFrameConverter.ToMat();
+    private final Mat smallFrame = new Mat();
+    private final Mat grayFrame = new Mat();
+    private final Mat background = new Mat();
+    private final Mat backgroundFrame = new Mat();
+    private final Mat difference = new Mat();
+    private final Mat mask = new Mat();
+    private final Mat motionPoints = new Mat();
+    private final Mat kernel = getStructuringElement(MORPH_RECT, new Size(3, 3));
+    private final Size blurSize = new Size(MOTION_BLUR_SIZE, MOTION_BLUR_SIZE);
+
+    private long frames;
+    private long motionFrames;
+    private long fullScanFrames;
+    private int framesWithoutScan;
+
+    /**
+     * Checks the given frame for motion against the frames seen so far.
+     *
+     * @param frame frame to be checked. Not modified
+     * @return region of the frame with motion in frame coordinates, including a margin, or null if there is no motion.
+     * The whole frame every {@link ueg.watchdog.Constants.MotionConstants#MOTION_FULL_SCAN_FRAMES} frames without
+     * motion, for still people absorbed by the background to be found again
+     */
+    public Rect detect(Frame frame) {
+        if (frame.image == null) {
+            return null;
+        }
+        frames++;
+
+        int width = frame.imageWidth;
+        int height = frame.imageHeight;
+        double scale = Math.min(1.0, (double) MOTION_FRAME_WIDTH / width);
+        Size smallSize = new Size((int) (width * scale), (int) (height * scale));
+
+        resize(toMatConverter.convert(frame), smallFrame, smallSize, 0, 0, INTER_AREA);
+        cvtColor(smallFrame, grayFrame, COLOR_BGR2GRAY);
+        GaussianBlur(grayFrame, grayFrame, blurSize, 0);
+
+        if (background.empty()) {
+            // Nothing to compare the first frame with. Hence the whole frame is considered as moving
+            grayFrame.convertTo(background, CV_32F);
+            motionFrames++;
+            framesWithoutScan = 0;
+            return new Rect(0, 0, width, height);
+        }
+
+        background.convertTo(backgroundFrame, CV_8U);
+        absdiff(grayFrame, backgroundFrame, difference);
+        threshold(difference, mask, MOTION_PIXEL_THRESHOLD, 255, THRESH_BINARY);
+        dilate(mask, mask, kernel);
+        accumulateWeighted(grayFrame, background, MOTION_BACKGROUND_LEARNING_RATE);
+
+        int movingPixels = countNonZero(mask);
+        if (movingPixels < MOTION_MIN_AREA_RATIO * mask.total()) {
+            if (++framesWithoutScan < MOTION_FULL_SCAN_FRAMES) {
+                return null;
+            }
+            framesWithoutScan = 0;
+            fullScanFrames++;
+            return new Rect(0, 0, width, height);
+        }
+        motionFrames++;
+        framesWithoutScan = 0;
+
+        findNonZero(mask, motionPoints);
+        Rect motion = boundingRect(motionPoints);
+
+        // Back to frame coordinates, with a margin to include the whole of partly moving faces
+        int marginX = (int) (motion.width() * MOTION_REGION_MARGIN);
+        int marginY = (int) (motion.height() * MOTION_REGION_MARGIN);
+        int x = Math.max(0, (int) ((motion.x() - marginX) / scale));
+        int y = Math.max(0, (int) ((motion.y() - marginY) / scale));
+        int right = Math.min(width, (int) Math.ceil((motion.x() + motion.width() + marginX) / scale));
+        int bottom = Math.min(height, (int) Math.ceil((motion.y() + motion.height() + marginY) / scale));
+        return new Rect(x, y, right - x, bottom - y);
+    }
+
+    /**
+     * Forgets the background, for example when the scene has changed completely.
+     */
+    public void reset() {
+        background.release();
+        framesWithoutScan = 0;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getMotionFrames() {
+        return motionFrames;
+    }
+
+    /**
+     * @return number of frames without motion returned as a whole, not to miss still people
+     */
+    public long getFullScanFrames() {
+        return fullScanFrames;
+    }
+
+    /**
+     * @return ratio of the frames with motion
+     */
+    public double getHitRate() {
+        return frames == 0 ? 0 : (double) motionFrames / frames;
+    }
+
+    /**
+     * @return ratio of the frames returned to be searched for faces, with motion or as a whole. The cost of face
+     * detection is saved for the rest of the frames
+     */
+    public double getSearchRate() {
+        return frames == 0 ? 0 : (double) (motionFrames + fullScanFrames) / frames;
+    }
+
+    public void logStatistics() {
+        logger.info("Motion found in {} of {} frames, and {} more searched as a whole. Hit rate : {}, search rate : {}",
+                motionFrames, frames, fullScanFrames, String.format("%.2f", getHitRate()),
+                String.format("%.2f", getSearchRate()));
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing.video;
+
+import org.bytedeco.javacpp.opencv_core.CvRect;
+import org.bytedeco.javacpp.opencv_core.Rect;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ueg.watchdog.api.*;
+import ueg.watchdog.core.configuration.WatchDogContext;
+import ueg.watchdog.core.processing.face.FaceClassifier;
+import ueg.watchdog.core.processing.face.FaceTracker;
+import ueg.watchdog.core.processing.motion.MotionDetector;
+import ueg.watchdog.model.ProcessedFrameStat;
+import ueg.watchdog.model.Profile;
+import ueg.watchdog.util.ImageUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.bytedeco.javacpp.opencv_core.Point;
+import static org.bytedeco.javacpp.opencv_core.Scalar;
+import static org.bytedeco.javacpp.opencv_imgproc.CV_FONT_HERSHEY_PLAIN;
+import static org.bytedeco.javacpp.opencv_imgproc.putText;
+import static ueg.watchdog.Constants.VideoConstants.*;
+
+/**
+ * Analyses the frames of a single video in order: detects and tracks the faces, classifies them, annotates the frames
+ * and records the frames to be kept according to the operating mode. Keeps state between frames, hence a new instance
+ * is needed for each video.
+ * <p>
+ * The analysis is split in to three steps, so that the face detection, which doesn't depend on the other frames, can be
+ * run in parallel by a {@link VideoPipeline}: {@link #findMotion(Frame)} and {@link #analyze(FrameData, LocalDateTime,
+ * FrameWriter)} have to be called in frame order, while {@link #detectFaces(FaceDetector, Frame, Rect)} can be called
+ * for several frames at once with different detectors.
+ *
+ * @author Erandi Ganepola
+ */
+public class FrameAnalyzer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameAnalyzer.class);
+
+    private final WatchDogContext context;
+    private final FaceDetector faceDetector;
+    private final MotionDetector motionDetector;
+    private final FaceClassifier faceClassifier;
+    private final int videoId;
+    private final Consumer<ProcessedFrameStat> statHandler;
+
+    private final OpenCVFrameConverter.ToMat toMatConverter = new OpenCVFrameConverter.ToMat();
+    private final FaceTracker<TrackedFace> faceTracker;
+    /**
+     * Analyses of the faces of the previous frames, reused for the faces of the next frame to keep their buffers
+     */
+    private final List<FaceAnalysis> faceAnalyses = new ArrayList<>();
+    private final PreRollBuffer preRollBuffer;
+    private int counter = RECORDING_FRAME_THRESHOLD;
+    /**
+     * Number of tracks alive after the last analysed frame. Read by {@link #findMotion(Frame)}, which runs ahead of the
+     * analysis on another thread
+     */
+    private volatile int liveTracks;
+    /**
+     * Frames without motion searched as a whole since faces were being tracked. Only used by the thread finding motion
+     */
+    private long trackedScanFrames;
+    private long trackedFaces;
+    private long analysedFaces;
+
+    /**
+     * @param faceDetector detector used by {@link #analyze(Frame, LocalDateTime, FrameWriter)}. Not needed if the
+     *                     faces are detected with {@link #detectFaces(FaceDetector, Frame, Rect)}
+     * @param videoId     id of the video the frames belong to, used for the stats
+     * @param statHandler handler of the stats of the analysed faces
+     */
+    public FrameAnalyzer(WatchDogContext context, FaceDetector faceDetector, GenderDetector genderDetector,
+                         AgeDetector ageDetector, PersonRecognizer personRecognizer, int videoId,
+                         Consumer<ProcessedFrameStat> statHandler) {
+        this.context = context;
+        this.faceDetector = faceDetector;
+        this.faceClassifier = new FaceClassifier(genderDetector, ageDetector, personRecognizer);
+        this.videoId = videoId;
+        this.statHandler = statHandler;
+
+        // Motion is tracked per video. Hence a new detector for each video
+        motionDetector = context.isMotionGatingEnabled() ? new MotionDetector() : null;
+
+        // Faces are analysed once per track rather than in every frame
+        faceTracker = new FaceTracker<>(TRACK_MIN_OVERLAP, TRACK_MAX_MISSED_FRAMES, TRACK_RECHECK_FRAMES);
+        // Frames before a person appears, recorded along with the person
+        preRollBuffer = new PreRollBuffer(context.getPreRollFrames(), context.getPreRollMaxBytes(), PRE_ROLL_JPEG_QUALITY);
+    }
+
+    /**
+     * Starts without keeping the first frames, which are otherwise kept in case a person was there before the first
+     * frame. For the frames starting in the middle of a video, after a part analysed by another analyzer.
+     */
+    public void startMidVideo() {
+        counter = 0;
+    }
+
+    /**
+     * Analyses and annotates the next frame of the video, and records it if it is to be kept.
+     *
+     * @param frame     next frame of the video. Annotated in place
+     * @param timestamp time the frame was captured
+     * @param writer    writer of the kept frames
+     */
+    public void analyze(Frame frame, LocalDateTime timestamp, FrameWriter writer) {
+        //detections
+        analyze(detectFaces(faceDetector, frame, findMotion(frame)), timestamp, writer);
+    }
+
+    /**
+     * Finds the region of the next frame of the video to search for faces in. Has to be called in frame order.
+     *
+     * @param frame next frame of the video
+     * @return region with motion, the whole frame if motion gating is disabled or faces are being tracked, or null if
+     * nothing moved
+     */
+    public Rect findMotion(Frame frame) {
+        if (motionDetector == null) {
+            return new Rect(0, 0, frame.imageWidth, frame.imageHeight);
+        }
+        Rect motion = motionDetector.detect(frame);
+        if (liveTracks > 0) {
+            // People who keep still don't move, yet are still there
+            if (motion == null) {
+                trackedScanFrames++;
+            }
+            return new Rect(0, 0, frame.imageWidth, frame.imageHeight);
+        }
+        return motion;
+    }
+
+    /**
+     * Detects the faces in a frame. Can be called for several frames at once, each with its own detector.
+     *
+     * @param faceDetector detector to be used
+     * @param frame        frame to be searched
+     * @param motion       region of the frame found by {@link #findMotion(Frame)}
+     * @return detected faces
+     */
+    public FrameData detectFaces(FaceDetector faceDetector, Frame frame, Rect motion) {
+        if (motion == null) {
+            // Nothing moved. Hence there's no new face to be found
+            FrameData frameData = new FrameData(frame);
+            frameData.setOriginalMat(new OpenCVFrameConverter.ToMat().convert(frame));
+            frameData.setProcessedFrame(frame);
+            return frameData;
+        }
+        return faceDetector.detect(frame, motion);
+    }
+
+    /**
+     * Tracks, classifies and annotates the detected faces of the next frame of the video, and writes the frame if it
+     * is to be kept. Has to be called in frame order.
+     *
+     * @param frameData faces detected in the next frame. The frame is annotated in place
+     * @param timestamp time the frame was captured
+     * @param writer    writer of the kept frames
+     */
+    public void analyze(FrameData frameData, LocalDateTime timestamp, FrameWriter writer) {
+        List<CvRect> faces = new ArrayList<>(frameData.getFaces().keySet());
+        List<String> captions = analyzeFaces(frameData, faces, timestamp);
+        for (int i = 0; i < faces.size(); i++) {
+            CvRect rect = faces.get(i);
+            int posX = Math.max(rect.x() - 10, 0);
+            int posY = Math.max(rect.y() - 10, 0);
+            // And now put it into the image:
+            putText(frameData.getOriginalMat(), captions.get(i), new Point(posX, posY),
+                    CV_FONT_HERSHEY_PLAIN, 1.0, new Scalar(255, 255, 255, 2.0));
+        }
+
+        putText(frameData.getOriginalMat(), timestamp.toString(), new Point(10, 20), CV_FONT_HERSHEY_PLAIN, 1.0,
+                new Scalar(0, 255, 255, 2.0));
+
+        try {
+            if (context.getOperatingMode() == WatchDogContext.OperatingMode.HUMAN_PRESENCE_AWARE) {
+                if (frameData.getNoOfPeople() > 0) {
+                    if (counter == 0) {
+                        preRollBuffer.flush(writer);
+                    }
+                    counter = RECORDING_FRAME_THRESHOLD; // set to 50
+                    Frame processedFrame = toMatConverter.convert(frameData.getOriginalMat());
+                    writer.write(processedFrame);
+                } else if (counter > 0) {
+                    counter--;
+                    Frame processedFrame = toMatConverter.convert(frameData.getOriginalMat());
+                    writer.write(processedFrame);
+                } else {
+                    preRollBuffer.add(frameData.getOriginalMat());
+                }
+            } else {
+                Frame processedFrame = toMatConverter.convert(frameData.getOriginalMat());
+                writer.write(processedFrame);
+            }
+        } catch (Exception e) {
+            logger.warn("Error occurred when recording video : {}", e);
+        }
+    }
+
+    /**
+     * Tracks and classifies the detected faces of the next frame of the video, without annotating or writing the frame.
+     * The faces and whether there are people in the frame are added to a log instead, for the video to be cut without
+     * re-encoding. Has to be called in frame order.
+     *
+     * @param frameData      faces detected in the next frame
+     * @param timestamp      time the frame was captured
+     * @param frameTimestamp timestamp of the frame in the video, in microseconds
+     * @param presenceLog    log of the video
+     */
+    public void analyze(FrameData frameData, LocalDateTime timestamp, long frameTimestamp, PresenceLog presenceLog) {
+        List<CvRect> faces = new ArrayList<>(frameData.getFaces().keySet());
+        List<String> captions = analyzeFaces(frameData, faces, timestamp);
+        List<PresenceLog.FaceOverlay> overlays = new ArrayList<>();
+        for (int i = 0; i < faces.size(); i++) {
+            CvRect rect = faces.get(i);
+            overlays.add(new PresenceLog.FaceOverlay(frameTimestamp, rect.x(), rect.y(), rect.width(), rect.height(),
+                    captions.get(i)));
+        }
+        presenceLog.addFrame(frameTimestamp, frameData.getNoOfPeople() > 0, overlays);
+    }
+
+    /**
+     * Tracks the faces and classifies the ones not analysed yet.
+     *
+     * @param faces faces of the frame, in the order of the captions
+     * @return captions of the faces
+     */
+    private List<String> analyzeFaces(FrameData frameData, List<CvRect> faces, LocalDateTime timestamp) {
+        List<FaceTracker.Track<TrackedFace>> tracks = faceTracker.update(faces);
+        liveTracks = faceTracker.getTrackCount();
+
+        // Only the faces of new tracks and the tracks due for a re-check are classified
+        int untracked = 0;
+        for (FaceTracker.Track<TrackedFace> track : tracks) {
+            if (track.needsAnalysis()) {
+                untracked++;
+            }
+        }
+        FaceAnalysis[] analyses = new FaceAnalysis[untracked];
+        for (int i = 0, j = 0; i < faces.size(); i++) {
+            if (tracks.get(i).needsAnalysis()) {
+                if (j == faceAnalyses.size()) {
+                    faceAnalyses.add(new FaceAnalysis(null, null));
+                }
+                analyses[j] = faceAnalyses.get(j).reset(faces.get(i), frameData.getFaces().get(faces.get(i)));
+                j++;
+            }
+        }
+        faceClassifier.classify(analyses);
+        trackedFaces += faces.size();
+        analysedFaces += analyses.length;
+
+        List<String> captions = new ArrayList<>();
+        for (int i = 0, j = 0; i < faces.size(); i++) {
+            FaceTracker.Track<TrackedFace> track = tracks.get(i);
+
+            if (track.needsAnalysis()) {
+                FaceAnalysis analysis = analyses[j++];
+                String caption = String.format("%s:[%s]", analysis.getGender(), analysis.getAge());
+                logger.debug("Caption of track {} : {}", track.getId(), caption);
+
+                // Recognized people are added to the database
+                Profile profile = analysis.getProfile();
+                track.setResult(new TrackedFace(caption, profile));
+                statHandler.accept(new ProcessedFrameStat(
+                        videoId,
+                        timestamp,
+                        caption,
+                        ImageUtils.toBufferedImage(analysis.getFace().getFace()),
+                        profile != null ? String.valueOf(profile.getId()) : null));
+            }
+            captions.add(track.getResult().caption);
+        }
+        return captions;
+    }
+
+    public void logStatistics() {
+        logger.debug("Analysed {} of {} detected faces", analysedFaces, trackedFaces);
+        if (motionDetector != null) {
+            motionDetector.logStatistics();
+            logger.debug("Searched {} more frames without motion as a whole while tracking faces", trackedScanFrames);
+        }
+    }
+
+    /**
+     * Analysis result kept for a tracked face
+     */
+    private static class TrackedFace {
+
+        private final String caption;
+        private final Profile profile;
+
+        private TrackedFace(String caption, Profile profile) {
+            this.caption = caption;
+            this.profile = profile;
+        }
+    }
+}
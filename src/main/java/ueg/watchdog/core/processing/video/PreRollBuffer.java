@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing.video;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.bytedeco.javacpp.opencv_imgcodecs.*;
+
+/**
+ * Keeps the most recent frames before an event, so that they can be recorded once the event starts. Frames are kept
+ * JPEG encoded in the heap, bounded by both the number of frames and the encoded size.
+ *
+ * @author Erandi Ganepola
+ */
+public class PreRollBuffer {
+
+    private static final String ENCODING = ".jpg";
+
+    private final int maxFrames;
+    private final long maxBytes;
+    private final IntPointer encodingParams;
+    private final Deque<byte[]> frames = new ArrayDeque<>();
+    private final OpenCVFrameConverter.ToMat toMatConverter = new OpenCVFrameConverter.ToMat();
+    private long bytes;
+
+    /**
+     * @param maxFrames   maximum number of frames kept
+     * @param maxBytes    maximum encoded size of the frames kept
+     * @param jpegQuality quality of the encoded frames, from 0 to 100
+     */
+    public PreRollBuffer(int maxFrames, long maxBytes, int jpegQuality) {
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.encodingParams = new IntPointer(IMWRITE_JPEG_QUALITY, jpegQuality);
+    }
+
+    /**
+     * Adds a frame, evicting the oldest frames when the buffer is full.
+     *
+     * @param frame frame to be kept. Encoded immediately, hence can be reused once this method returns
+     */
+    public void add(Mat frame) {
+        if (maxFrames <= 0) {
+            return;
+        }
+
+        BytePointer buffer = new BytePointer();
+        try {
+            imencode(ENCODING, frame, buffer, encodingParams);
+            byte[] encoded = new byte[(int) buffer.limit()];
+            buffer.get(encoded);
+            frames.addLast(encoded);
+            bytes += encoded.length;
+        } finally {
+            buffer.deallocate();
+        }
+
+        while (frames.size() > maxFrames || (bytes > maxBytes && frames.size() > 1)) {
+            bytes -= frames.removeFirst().length;
+        }
+    }
+
+    /**
+     * Writes all the buffered frames, oldest first, and empties the buffer.
+     *
+     * @param writer writer of the frames
+     * @throws Exception if writing fails
+     */
+    public void flush(FrameWriter writer) throws Exception {
+        while (!frames.isEmpty()) {
+            byte[] encoded = frames.removeFirst();
+            bytes -= encoded.length;
+            Mat decoded = imdecode(new Mat(encoded), IMREAD_COLOR);
+            writer.write(toMatConverter.convert(decoded));
+            decoded.release();
+        }
+    }
+
+    public void clear() {
+        frames.clear();
+        bytes = 0;
+    }
+
+    public int size() {
+        return frames.size();
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
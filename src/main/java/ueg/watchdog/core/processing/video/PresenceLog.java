@@ -0,0 +1,193 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing.video;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Presence of people and faces found in the frames of a video, for the video to be cut at key frames and copied without
+ * re-encoding, with the faces in a sidecar file instead of drawn on the frames.
+ * <p>
+ * The frames to be kept are the frames with people, along with a pre roll before and a post roll after them, like when
+ * the frames are recorded in {@link ueg.watchdog.core.configuration.WatchDogContext.OperatingMode#HUMAN_PRESENCE_AWARE}
+ * mode. Timestamps are in microseconds, as given by the frame grabber of the video.
+ *
+ * @author Erandi Ganepola
+ */
+public class PresenceLog {
+
+    private static final String INTERVAL = "interval";
+    private static final String FACE = "face";
+    private static final String SEPARATOR = "\t";
+
+    private final boolean presenceOnly;
+    private final long preRollMicros;
+    private final long postRollMicros;
+    private final List<long[]> intervals = new ArrayList<>();
+    private final List<FaceOverlay> faces = new ArrayList<>();
+
+    /**
+     * @param presenceOnly   if false, all the frames are kept
+     * @param preRollMicros  duration kept before the frames with people
+     * @param postRollMicros duration kept after the frames with people
+     */
+    public PresenceLog(boolean presenceOnly, long preRollMicros, long postRollMicros) {
+        this.presenceOnly = presenceOnly;
+        this.preRollMicros = preRollMicros;
+        this.postRollMicros = postRollMicros;
+    }
+
+    /**
+     * Adds the next frame of the video. Has to be called in frame order.
+     *
+     * @param timestamp timestamp of the frame
+     * @param people    whether there are people in the frame
+     * @param overlays  faces found in the frame, with the timestamp of the frame
+     */
+    public void addFrame(long timestamp, boolean people, List<FaceOverlay> overlays) {
+        faces.addAll(overlays);
+        if (people || !presenceOnly) {
+            addInterval(timestamp - (presenceOnly ? preRollMicros : 0), timestamp + postRollMicros);
+        }
+    }
+
+    /**
+     * @return sorted intervals of the frames to be kept, as {start, end}
+     */
+    public List<long[]> getIntervals() {
+        return intervals;
+    }
+
+    /**
+     * Saves the log, to be loaded once all the parts of the video are analysed.
+     */
+    public void save(String filePath) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            for (long[] interval : intervals) {
+                writer.write(INTERVAL + SEPARATOR + interval[0] + SEPARATOR + interval[1]);
+                writer.newLine();
+            }
+            for (FaceOverlay face : faces) {
+                writer.write(FACE + SEPARATOR + face.timestamp + SEPARATOR + face.x + SEPARATOR + face.y + SEPARATOR
+                        + face.width + SEPARATOR + face.height + SEPARATOR + face.caption);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Loads the saved logs of consecutive parts of a video as a single log.
+     *
+     * @param filePaths saved logs, in order
+     */
+    public static PresenceLog load(List<String> filePaths) throws IOException {
+        PresenceLog log = new PresenceLog(true, 0, 0);
+        for (String filePath : filePaths) {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(SEPARATOR, 7);
+                    if (INTERVAL.equals(fields[0])) {
+                        log.addInterval(Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+                    } else if (FACE.equals(fields[0])) {
+                        log.faces.add(new FaceOverlay(Long.parseLong(fields[1]), Integer.parseInt(fields[2]),
+                                Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                                fields[6]));
+                    }
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Writes the faces kept in the cut video, with their timestamps in the cut video.
+     *
+     * @param filePath     path of the sidecar file
+     * @param copiedRanges ranges of the video copied in to the cut video, as {start, end, start in the cut video}
+     */
+    public void writeSidecar(String filePath, List<long[]> copiedRanges) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            writer.write("# timestamp(us)" + SEPARATOR + "x" + SEPARATOR + "y" + SEPARATOR + "width" + SEPARATOR
+                    + "height" + SEPARATOR + "caption");
+            writer.newLine();
+            int range = 0;
+            for (FaceOverlay face : faces) {
+                while (range < copiedRanges.size() && face.timestamp >= copiedRanges.get(range)[1]) {
+                    range++;
+                }
+                if (range == copiedRanges.size()) {
+                    break;
+                }
+                long[] copiedRange = copiedRanges.get(range);
+                if (face.timestamp < copiedRange[0]) {
+                    // Not kept
+                    continue;
+                }
+                writer.write((face.timestamp - copiedRange[0] + copiedRange[2]) + SEPARATOR + face.x + SEPARATOR
+                        + face.y + SEPARATOR + face.width + SEPARATOR + face.height + SEPARATOR + face.caption);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Adds an interval after the ones added before, merged with the last one if they overlap.
+     */
+    private void addInterval(long start, long end) {
+        long[] last = intervals.isEmpty() ? null : intervals.get(intervals.size() - 1);
+        if (last != null && start <= last[1]) {
+            last[1] = Math.max(last[1], end);
+        } else {
+            intervals.add(new long[]{start, end});
+        }
+    }
+
+    /**
+     * A face found in a frame, with the caption that would have been drawn next to it.
+     */
+    public static class FaceOverlay {
+
+        private final long timestamp;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final String caption;
+
+        public FaceOverlay(long timestamp, int x, int y, int width, int height, String caption) {
+            this.timestamp = timestamp;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.caption = caption;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing.video;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import static ueg.watchdog.Constants.VideoConstants.CHECKPOINT_FILE_SUFFIX;
+import static ueg.watchdog.Constants.VideoConstants.PART_FILE_SUFFIX;
+
+/**
+ * Progress of processing a video, kept next to its processed video so that processing can resume from it after a
+ * restart.
+ * <p>
+ * A video is processed in parts starting at key frames, each in to a file of its own. A part is completed once its file
+ * is finalized and its frame stats are saved. The parts are completed in order, hence the progress is the number of
+ * completed parts.
+ *
+ * @author Erandi Ganepola
+ */
+public class VideoCheckpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoCheckpoint.class);
+
+    private static final String PART_STARTS = "part_starts";
+    private static final String COMPLETED_PARTS = "completed_parts";
+    private static final String RAW_FILE_SIZE = "raw_file_size";
+    private static final String STREAM_COPY = "stream_copy";
+
+    private final String processedFilePath;
+    private final List<Long> partStarts;
+    private final long rawFileSize;
+    private final boolean streamCopy;
+    private int completedParts;
+
+    private VideoCheckpoint(String processedFilePath, List<Long> partStarts, long rawFileSize, boolean streamCopy,
+                            int completedParts) {
+        this.processedFilePath = processedFilePath;
+        this.partStarts = Collections.unmodifiableList(partStarts);
+        this.rawFileSize = rawFileSize;
+        this.streamCopy = streamCopy;
+        this.completedParts = completedParts;
+    }
+
+    /**
+     * Starts processing a video from the beginning.
+     *
+     * @param partStarts timestamps of the key frames the parts start from. The first part starts at the beginning
+     * @param streamCopy whether the part files are presence logs, for the raw video to be copied, instead of videos
+     */
+    public static VideoCheckpoint create(String rawFilePath, String processedFilePath, List<Long> partStarts,
+                                         boolean streamCopy) {
+        return new VideoCheckpoint(processedFilePath, new ArrayList<>(partStarts), new File(rawFilePath).length(),
+                streamCopy, 0);
+    }
+
+    /**
+     * @return the saved progress of processing the video, or null if there is none or it is not of the same raw video
+     */
+    public static VideoCheckpoint load(String rawFilePath, String processedFilePath) {
+        Path file = Paths.get(processedFilePath + CHECKPOINT_FILE_SUFFIX);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            properties.load(inputStream);
+            long rawFileSize = Long.parseLong(properties.getProperty(RAW_FILE_SIZE));
+            if (rawFileSize != new File(rawFilePath).length()) {
+                logger.warn("Ignoring the checkpoint of a different video : {}", file);
+                return null;
+            }
+            List<Long> partStarts = new ArrayList<>();
+            for (String partStart : properties.getProperty(PART_STARTS).split(",")) {
+                partStarts.add(Long.parseLong(partStart));
+            }
+            boolean streamCopy = Boolean.parseBoolean(properties.getProperty(STREAM_COPY));
+            int completedParts = Integer.parseInt(properties.getProperty(COMPLETED_PARTS));
+            return new VideoCheckpoint(processedFilePath, partStarts, rawFileSize, streamCopy, completedParts);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable checkpoint : {}", file, e);
+            return null;
+        }
+    }
+
+    public List<Long> getPartStarts() {
+        return partStarts;
+    }
+
+    /**
+     * @return whether the part files are {@link PresenceLog presence logs} instead of videos
+     */
+    public boolean isStreamCopy() {
+        return streamCopy;
+    }
+
+    public int getCompletedParts() {
+        return completedParts;
+    }
+
+    public boolean isComplete() {
+        return completedParts == partStarts.size();
+    }
+
+    public String getPartFilePath(int part) {
+        return processedFilePath + PART_FILE_SUFFIX + part;
+    }
+
+    public List<String> getPartFilePaths() {
+        List<String> partFilePaths = new ArrayList<>();
+        for (int i = 0; i < partStarts.size(); i++) {
+            partFilePaths.add(getPartFilePath(i));
+        }
+        return partFilePaths;
+    }
+
+    /**
+     * Marks the next part as completed and saves the progress.
+     *
+     * @throws IOException if the progress can't be saved
+     */
+    public void completePart() throws IOException {
+        completedParts++;
+        save();
+    }
+
+    /**
+     * Saves the progress. The previous checkpoint is replaced at once, hence a crash leaves either of them intact.
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(PART_STARTS, partStarts.stream().map(String::valueOf).collect(Collectors.joining(",")));
+        properties.setProperty(COMPLETED_PARTS, String.valueOf(completedParts));
+        properties.setProperty(RAW_FILE_SIZE, String.valueOf(rawFileSize));
+        properties.setProperty(STREAM_COPY, String.valueOf(streamCopy));
+
+        Path file = Paths.get(processedFilePath + CHECKPOINT_FILE_SUFFIX);
+        Path tempFile = Paths.get(file + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+            properties.store(outputStream, "Progress of processing the video");
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the checkpoint and the part files, once the video is processed.
+     */
+    public void delete() {
+        getPartFilePaths().forEach(path -> new File(path).delete());
+        new File(processedFilePath + CHECKPOINT_FILE_SUFFIX).delete();
+    }
+}
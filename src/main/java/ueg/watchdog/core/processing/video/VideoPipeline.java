@@ -0,0 +1,476 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing.video;
+
+import org.bytedeco.javacpp.opencv_core.Rect;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.FrameRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ueg.watchdog.api.FaceDetector;
+import ueg.watchdog.api.FrameBuffer;
+import ueg.watchdog.api.FrameData;
+import ueg.watchdog.core.FramePool;
+import ueg.watchdog.core.configuration.WatchDogContext;
+import ueg.watchdog.core.processing.face.HaarFaceDetector;
+import ueg.watchdog.model.ProcessedFrameStat;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import static ueg.watchdog.Constants.VideoConstants.FRAME_CHANNELS;
+
+/**
+ * Processes a video in stages connected by bounded queues, so that decoding, face detection, analysis and encoding
+ * overlap instead of waiting for each other:
+ * <ol>
+ * <li>decode : grabs the frames in to pooled buffers and finds the motion in them</li>
+ * <li>detect : a number of threads, each with its own face detector, detect the faces of different frames at once</li>
+ * <li>analyze : puts the frames back in order, then tracks, classifies and annotates the faces</li>
+ * <li>encode : records the kept frames and saves the frame stats</li>
+ * </ol>
+ * The occupancy of the queues between the stages is available from {@link #getMetrics()}. A full queue is followed by
+ * the slowest stage.
+ *
+ * @author Erandi Ganepola
+ */
+public class VideoPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoPipeline.class);
+
+    /**
+     * Marks the end of the frames in the decoded queue
+     */
+    private static final Item END_OF_VIDEO = new Item(-1, 0, null, null, null);
+    private static final Runnable END_OF_ENCODING = () -> { };
+    private static final int METRICS_LOG_INTERVAL = 500;
+
+    private final WatchDogContext context;
+    private final int detectionThreads;
+    private final int queueCapacity;
+    private final ThreadLocal<FaceDetector> faceDetectors;
+    private ExecutorService detectionExecutor;
+    private ExecutorService stageExecutor;
+    private volatile Run currentRun;
+
+    /**
+     * @param detectionThreads number of frames searched for faces at once
+     * @param queueCapacity    capacity of each queue between the stages
+     */
+    public VideoPipeline(WatchDogContext context, int detectionThreads, int queueCapacity) {
+        this.context = context;
+        this.detectionThreads = Math.max(1, detectionThreads);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.faceDetectors = ThreadLocal.withInitial(() -> new HaarFaceDetector(context.getDetectionScale()));
+    }
+
+    public void start() {
+        detectionExecutor = Executors.newFixedThreadPool(detectionThreads);
+        // Decoding and encoding
+        stageExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    public void stop() {
+        detectionExecutor.shutdownNow();
+        stageExecutor.shutdownNow();
+    }
+
+    /**
+     * Processes a whole video. The analysis stage runs on the calling thread.
+     *
+     * @param grabber  started grabber of the video
+     * @param analyzer analyzer of the video. Its frame stats have to be handed over to {@link #saveStat}
+     * @param recorder started recorder of the processed video
+     * @param from     time the first frame of the video was captured
+     * @param running  checked before decoding each frame. Processing is cut short once false
+     * @throws Exception if any of the stages fails
+     */
+    public void process(FrameGrabber grabber, FrameAnalyzer analyzer, FrameRecorder recorder, LocalDateTime from,
+                        BooleanSupplier running) throws Exception {
+        process(grabber, analyzer, recorder, from, Long.MAX_VALUE, running);
+    }
+
+    /**
+     * Processes the frames of a video from the current position of the grabber, up to the given timestamp.
+     *
+     * @param endTimestamp timestamp of the grabber, in microseconds, from which the frames are left out
+     * @see #process(FrameGrabber, FrameAnalyzer, FrameRecorder, LocalDateTime, BooleanSupplier)
+     */
+    public void process(FrameGrabber grabber, FrameAnalyzer analyzer, FrameRecorder recorder, LocalDateTime from,
+                        long endTimestamp, BooleanSupplier running) throws Exception {
+        process(grabber, analyzer, recorder, null, from, endTimestamp, running);
+    }
+
+    /**
+     * Analyses the frames of a video from the current position of the grabber, up to the given timestamp, without
+     * annotating or encoding them. The faces and the presence of people are added to a log instead.
+     *
+     * @param presenceLog log of the video
+     * @see #process(FrameGrabber, FrameAnalyzer, FrameRecorder, LocalDateTime, long, BooleanSupplier)
+     */
+    public void process(FrameGrabber grabber, FrameAnalyzer analyzer, PresenceLog presenceLog, LocalDateTime from,
+                        long endTimestamp, BooleanSupplier running) throws Exception {
+        process(grabber, analyzer, null, presenceLog, from, endTimestamp, running);
+    }
+
+    private void process(FrameGrabber grabber, FrameAnalyzer analyzer, FrameRecorder recorder, PresenceLog presenceLog,
+                         LocalDateTime from, long endTimestamp, BooleanSupplier running) throws Exception {
+        int width = grabber.getImageWidth() > 0 ? grabber.getImageWidth() : context.getFrameWidth();
+        int height = grabber.getImageHeight() > 0 ? grabber.getImageHeight() : context.getFrameHeight();
+        Run run = new Run(width, height);
+        currentRun = run;
+        try {
+            run.process(grabber, analyzer, recorder, presenceLog, from, endTimestamp, running);
+        } finally {
+            currentRun = null;
+        }
+    }
+
+    /**
+     * Stats are saved by the encoding stage, so that the database writes don't hold back the analysis.
+     *
+     * @param stat stat of a frame of the video being processed
+     */
+    public void saveStat(ProcessedFrameStat stat) {
+        try {
+            currentRun.encodeQueue.put(stat::checkForDuplicatesAndSave);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return current occupancy of the queues between the stages, or null if no video is being processed
+     */
+    public Metrics getMetrics() {
+        Run run = currentRun;
+        return run != null ? run.getMetrics() : null;
+    }
+
+    /**
+     * State of processing a single video.
+     */
+    private class Run {
+
+        private final FramePool decodePool;
+        private final FramePool encodePool;
+        private final BlockingQueue<Item> decodedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<Runnable> encodeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final Map<Long, Item> detectedFrames = new HashMap<>();
+        private final ReentrantLock reorderLock = new ReentrantLock();
+        private final Condition frameDetected = reorderLock.newCondition();
+        private volatile long decodedFrames;
+        private volatile boolean decodingFinished;
+        private boolean analysisFinished;
+        private volatile Exception failure;
+
+        private Run(int width, int height) {
+            // Enough buffers for the frames in all the queues, plus the ones being worked on by each stage
+            decodePool = new FramePool(2 * queueCapacity + 2 * detectionThreads + 2, width, height, FRAME_CHANNELS);
+            encodePool = new FramePool(queueCapacity + 2, width, height, FRAME_CHANNELS);
+        }
+
+        private void process(FrameGrabber grabber, FrameAnalyzer analyzer, FrameRecorder recorder,
+                             PresenceLog presenceLog, LocalDateTime from, long endTimestamp, BooleanSupplier running)
+                throws Exception {
+            Future<?> decoding = stageExecutor.submit(() -> decode(grabber, analyzer, endTimestamp, running));
+            Future<?> encoding = stageExecutor.submit(this::encode);
+            for (int i = 0; i < detectionThreads; i++) {
+                detectionExecutor.submit(() -> detect(analyzer));
+            }
+
+            try {
+                analyze(analyzer, recorder, presenceLog, from, 1 / grabber.getFrameRate());
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                // Frames left behind by a failure. Releasing them lets the decoding stage finish
+                reorderLock.lock();
+                try {
+                    analysisFinished = true;
+                    detectedFrames.values().forEach(item -> item.buffer.release());
+                    detectedFrames.clear();
+                } finally {
+                    reorderLock.unlock();
+                }
+                encodeQueue.put(END_OF_ENCODING);
+            }
+            decoding.get();
+            encoding.get();
+
+            logger.debug("Video pipeline finished with decode pool drops : {}", decodePool.getDroppedFrames());
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void decode(FrameGrabber grabber, FrameAnalyzer analyzer, long endTimestamp, BooleanSupplier running) {
+            long sequence = 0;
+            try {
+                Frame frame;
+                while (failure == null && running.getAsBoolean() && (frame = grabber.grab()) != null) {
+                    if (frame.image == null) {
+                        // Audio
+                        continue;
+                    }
+                    long timestamp = grabber.getTimestamp();
+                    if (timestamp >= endTimestamp) {
+                        break;
+                    }
+                    FrameBuffer buffer = decodePool.awaitCopyOf(frame);
+                    Rect motion = analyzer.findMotion(buffer.getFrame());
+                    decodedQueue.put(new Item(sequence++, timestamp, buffer, motion, null));
+                    decodedFrames = sequence;
+                }
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                decodingFinished = true;
+                signalDetected();
+                for (int i = 0; i < detectionThreads; i++) {
+                    try {
+                        decodedQueue.put(END_OF_VIDEO);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        private void detect(FrameAnalyzer analyzer) {
+            FaceDetector faceDetector = faceDetectors.get();
+            try {
+                Item item;
+                while ((item = decodedQueue.take()) != END_OF_VIDEO) {
+                    FrameData frameData = null;
+                    try {
+                        if (failure == null) {
+                            frameData = analyzer.detectFaces(faceDetector, item.buffer.getFrame(), item.motion);
+                        }
+                    } catch (Exception e) {
+                        // Keeps draining the frames after failing
+                        fail(e);
+                    }
+                    reorderLock.lock();
+                    try {
+                        if (failure != null || analysisFinished) {
+                            // Drained, so that the decoding stage doesn't wait for free buffers
+                            item.buffer.release();
+                        } else {
+                            detectedFrames.put(item.sequence,
+                                    new Item(item.sequence, item.timestamp, item.buffer, item.motion, frameData));
+                            frameDetected.signalAll();
+                        }
+                    } finally {
+                        reorderLock.unlock();
+                    }
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void analyze(FrameAnalyzer analyzer, FrameRecorder recorder, PresenceLog presenceLog, LocalDateTime from,
+                             double frameInterval) throws Exception {
+            long offsetNanos = (long) (frameInterval * 1000000000);
+            LocalDateTime timestamp = from;
+
+            FrameWriter writer = frame -> {
+                // The analysed frame goes back to the decode pool. Hence a copy is handed over to the encoder
+                FrameBuffer buffer = encodePool.awaitCopyOf(frame);
+                encodeQueue.put(() -> {
+                    try {
+                        recorder.record(buffer.getFrame());
+                    } catch (FrameRecorder.Exception e) {
+                        logger.warn("Error occurred when recording video : {}", e);
+                    } finally {
+                        buffer.release();
+                    }
+                });
+            };
+
+            for (long sequence = 0; ; sequence++) {
+                Item item = awaitDetected(sequence);
+                if (item == null) {
+                    break;
+                }
+                if (sequence % METRICS_LOG_INTERVAL == 0) {
+                    logger.debug("Video pipeline queues at frame {} : {}", sequence, getMetrics());
+                }
+                try {
+                    timestamp = timestamp.plusNanos(offsetNanos);
+                    if (presenceLog != null) {
+                        analyzer.analyze(item.frameData, timestamp, item.timestamp, presenceLog);
+                    } else {
+                        analyzer.analyze(item.frameData, timestamp, writer);
+                    }
+                } finally {
+                    item.buffer.release();
+                }
+            }
+        }
+
+        /**
+         * @return the detected frame of the given sequence, or null if there are no more frames
+         */
+        private Item awaitDetected(long sequence) throws InterruptedException {
+            reorderLock.lock();
+            try {
+                while (!detectedFrames.containsKey(sequence)) {
+                    if (failure != null || (decodingFinished && sequence >= decodedFrames)) {
+                        return null;
+                    }
+                    frameDetected.await();
+                }
+                return detectedFrames.remove(sequence);
+            } finally {
+                reorderLock.unlock();
+            }
+        }
+
+        private void encode() {
+            for (; ; ) {
+                Runnable task;
+                try {
+                    task = encodeQueue.take();
+                } catch (InterruptedException e) {
+                    fail(e);
+                    return;
+                }
+                if (task == END_OF_ENCODING) {
+                    return;
+                }
+                // A failed frame or stat doesn't stop the rest of the video
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.error("Error occurred when encoding", e);
+                }
+            }
+        }
+
+        private void fail(Exception e) {
+            if (failure == null) {
+                failure = e;
+            }
+            signalDetected();
+        }
+
+        private void signalDetected() {
+            reorderLock.lock();
+            try {
+                frameDetected.signalAll();
+            } finally {
+                reorderLock.unlock();
+            }
+        }
+
+        private Metrics getMetrics() {
+            int reorderedFrames;
+            reorderLock.lock();
+            try {
+                reorderedFrames = detectedFrames.size();
+            } finally {
+                reorderLock.unlock();
+            }
+            return new Metrics(decodedQueue.size(), reorderedFrames, encodeQueue.size(), queueCapacity);
+        }
+    }
+
+    /**
+     * A frame passed between the stages.
+     */
+    private static class Item {
+
+        private final long sequence;
+        /**
+         * Timestamp of the frame in the video, in microseconds
+         */
+        private final long timestamp;
+        private final FrameBuffer buffer;
+        private final Rect motion;
+        private final FrameData frameData;
+
+        private Item(long sequence, long timestamp, FrameBuffer buffer, Rect motion, FrameData frameData) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.buffer = buffer;
+            this.motion = motion;
+            this.frameData = frameData;
+        }
+    }
+
+    /**
+     * A snapshot of the queues between the stages.
+     */
+    public static class Metrics {
+
+        private final int decodedFrames;
+        private final int reorderedFrames;
+        private final int encodeTasks;
+        private final int capacity;
+
+        private Metrics(int decodedFrames, int reorderedFrames, int encodeTasks, int capacity) {
+            this.decodedFrames = decodedFrames;
+            this.reorderedFrames = reorderedFrames;
+            this.encodeTasks = encodeTasks;
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return frames waiting for face detection. Full when detection is the bottleneck
+         */
+        public int getDecodedFrames() {
+            return decodedFrames;
+        }
+
+        /**
+         * @return detected frames waiting for an earlier frame to be detected before being analysed
+         */
+        public int getReorderedFrames() {
+            return reorderedFrames;
+        }
+
+        /**
+         * @return frames and stats waiting to be encoded and saved. Full when encoding is the bottleneck
+         */
+        public int getEncodeTasks() {
+            return encodeTasks;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Decoded : %d/%d, reordered : %d, encode : %d/%d", decodedFrames, capacity,
+                    reorderedFrames, encodeTasks, capacity);
+        }
+    }
+}
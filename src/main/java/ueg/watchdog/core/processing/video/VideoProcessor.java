@@ -21,203 +21,556 @@
  */
 package ueg.watchdog.core.processing.video;
 
-import org.bytedeco.javacpp.opencv_core.Mat;
 import org.bytedeco.javacv.*;
 import ueg.watchdog.Constants;
 import ueg.watchdog.api.*;
-import ueg.watchdog.api.GenderDetector.Gender;
 import ueg.watchdog.core.configuration.WatchDogContext;
+import ueg.watchdog.core.configuration.WatchDogContext.OperatingMode;
+import ueg.watchdog.core.configuration.WatchDogContext.OutputMode;
 import ueg.watchdog.core.processing.age.CNNAgeDetector;
 import ueg.watchdog.core.processing.face.FisherFacesPersonRecognizer;
-import ueg.watchdog.core.processing.face.HaarFaceDetector;
 import ueg.watchdog.core.processing.gender.FisherFacesGenderDetector;
 import ueg.watchdog.model.ProcessedFrameStat;
-import ueg.watchdog.model.Profile;
 import ueg.watchdog.model.Video;
-import ueg.watchdog.util.ImageUtils;
 import ueg.watchdog.util.WatchDogUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
-import static org.bytedeco.javacpp.opencv_core.Point;
-import static org.bytedeco.javacpp.opencv_core.Scalar;
-import static org.bytedeco.javacpp.opencv_imgproc.CV_FONT_HERSHEY_PLAIN;
-import static org.bytedeco.javacpp.opencv_imgproc.putText;
+import static ueg.watchdog.Constants.VideoConstants.OVERLAY_FILE_SUFFIX;
+import static ueg.watchdog.Constants.VideoConstants.PIPELINE_QUEUE_CAPACITY;
 import static ueg.watchdog.Constants.VideoConstants.RECORDING_FRAME_THRESHOLD;
+import static ueg.watchdog.Constants.VideoConstants.VIDEO_WATCH_SETTLE_MILLIS;
 
 /**
  * Class to process videos.
+ * <p>
+ * Videos are processed by a pool of workers, one video per worker at a time. The detectors keep native state and are
+ * not thread safe, hence each worker has its own set of detectors used only by its own thread. The CNN age detector is
+ * the exception. It is shared by all the threads, for the faces of many of them to be classified in one batch. The
+ * person recognizer, only read once trained, is shared by the whole application.
+ * <p>
+ * The workers claim the videos from the database with a lease, which is renewed while the video is being processed.
+ * Hence any number of processors, in this or other processes, can share the videos without processing one twice. The
+ * video of a processor which died is claimed again once its lease expires.
+ * <p>
+ * Idle workers wait until a video is added, as notified by {@link #notifyVideoAdded()} or noticed in the storage
+ * directory, instead of polling the database.
+ * <p>
+ * Videos are processed in parts starting at key frames, each in to a file of its own, and the part files are joined
+ * without encoding them again. The progress is kept in a {@link VideoCheckpoint} after each part, to resume from after a
+ * restart. The parts of long videos can also be processed at once by a pool of chunk threads shared by the workers.
+ * <p>
+ * In {@link OutputMode#STREAM_COPY} mode, the parts are only analysed, and the kept frames of the recorded video are
+ * copied without encoding them again. The faces go to a sidecar file instead of being drawn on the frames.
  *
  * @author Erandi Ganepola
  */
 public class VideoProcessor extends AbstractWatchDogElement {
 
-    private ExecutorService executorService;
+    private static final int STOP_TIMEOUT_SECONDS = 30;
 
-    private FrameGrabber grabber;
-    private FrameRecorder recorder;
-    private GenderDetector genderDetector;
+    private ExecutorService executorService;
+    private ExecutorService chunkExecutor;
+    private ScheduledExecutorService leaseRenewer;
+    private ExecutorService watcherExecutor;
+    private VideoStorageWatcher storageWatcher;
+    private final Object videoAddedLock = new Object();
+    private long videoAddedCount;
+    private final String processorId = UUID.randomUUID().toString();
+    /**
+     * Videos being processed, by the id of the worker which claimed them
+     */
+    private final Map<String, Video> claims = new ConcurrentHashMap<>();
+    private final List<Analysis> analyses = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Analysis> chunkAnalyses = ThreadLocal.withInitial(Analysis::new);
     private AgeDetector ageDetector;
-    private FaceDetector faceDetector;
-    private PersonRecognizer personRecognizer;
-
-    private OpenCVFrameConverter.ToMat toMatConverter;
 
     public VideoProcessor(WatchDogContext context) {
         super(context);
-        toMatConverter = new OpenCVFrameConverter.ToMat();
+    }
 
-        genderDetector = new FisherFacesGenderDetector(Constants.FISHERFACES_GENDER_MODEL);
-        ageDetector = new CNNAgeDetector();
-        faceDetector = new HaarFaceDetector();
+    @Override
+    protected void startElement() {
+        int noOfWorkers = Math.max(1, watchDogContext.getVideoProcessingWorkers());
+        int chunkWorkers = watchDogContext.getChunkWorkers();
+        logger.info("Starting video processor with {} workers and {} chunk workers", noOfWorkers, chunkWorkers);
 
-        personRecognizer = new FisherFacesPersonRecognizer(Constants.PROFILE_PICTURE_DIR);
+        ageDetector = CNNAgeDetector.getInstance(watchDogContext);
+        if (chunkWorkers > 1) {
+            chunkExecutor = Executors.newFixedThreadPool(chunkWorkers);
+        }
+        int renewalSeconds = Math.max(1, watchDogContext.getVideoLeaseSeconds() / 3);
+        leaseRenewer = Executors.newSingleThreadScheduledExecutor();
+        leaseRenewer.scheduleAtFixedRate(this::renewLeases, renewalSeconds, renewalSeconds, TimeUnit.SECONDS);
 
-        executorService = Executors.newSingleThreadExecutor();
+        storageWatcher = new VideoStorageWatcher(Paths.get(watchDogContext.getStoragePath()), VIDEO_WATCH_SETTLE_MILLIS,
+                this::notifyVideoAdded);
+        try {
+            storageWatcher.start();
+            watcherExecutor = Executors.newSingleThreadExecutor();
+            watcherExecutor.submit(storageWatcher);
+        } catch (IOException e) {
+            logger.warn("Unable to watch the storage directory. Only the videos recorded by this process are noticed", e);
+            storageWatcher = null;
+        }
+
+        executorService = Executors.newFixedThreadPool(noOfWorkers);
+        for (int i = 0; i < noOfWorkers; i++) {
+            executorService.submit(new Worker(processorId + "-" + i));
+        }
     }
 
     @Override
-    protected void startElement() {
-        logger.info("Starting video processor");
+    protected void stopElement() {
+        // Workers finish the current frame and exit on their own once the state changes. Idle ones are woken up
+        executorService.shutdown();
+        notifyVideoAdded();
+        if (storageWatcher != null) {
+            storageWatcher.close();
+            watcherExecutor.shutdownNow();
+        }
+        awaitTermination(executorService, "Video processing workers");
+        if (chunkExecutor != null) {
+            chunkExecutor.shutdown();
+            awaitTermination(chunkExecutor, "Chunk workers");
+        }
+        leaseRenewer.shutdownNow();
+        // The analyses of the workers are closed by the workers themselves. The ones of the chunk threads are left
+        analyses.forEach(Analysis::close);
+    }
+
+    private void awaitTermination(ExecutorService executor, String name) {
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("{} didn't stop in {} seconds. Interrupting", name, STOP_TIMEOUT_SECONDS);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wakes up the idle workers to claim a video added to the database.
+     */
+    public void notifyVideoAdded() {
+        synchronized (videoAddedLock) {
+            videoAddedCount++;
+            videoAddedLock.notifyAll();
+        }
+    }
+
+    private long getVideoAddedCount() {
+        synchronized (videoAddedLock) {
+            return videoAddedCount;
+        }
+    }
+
+    /**
+     * Waits until a video is added after the given count. The wait is also bounded by the lease duration, so that the
+     * videos of processors which died are picked up once their leases expire.
+     */
+    private void awaitVideoAdded(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(watchDogContext.getVideoLeaseSeconds());
+        synchronized (videoAddedLock) {
+            long remaining;
+            while (videoAddedCount == count && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                videoAddedLock.wait(remaining);
+            }
+        }
+    }
+
+    /**
+     * @return queue occupancy of the videos being processed, to find the slowest processing stage
+     */
+    public List<VideoPipeline.Metrics> getPipelineMetrics() {
+        return analyses.stream()
+                .map(analysis -> analysis.pipeline.getMetrics())
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Extends the leases of the videos being processed. A lost lease means the video was claimed by another worker,
+     * after this processor failed to renew it in time. Its worker then stops processing it, as the claim is removed.
+     */
+    private void renewLeases() {
+        claims.forEach((workerId, video) -> {
+            if (!video.renewLease(workerId, watchDogContext.getVideoLeaseSeconds())) {
+                logger.warn("Lost the claim of video ({}) by worker {}. Aborting", video.getFilePath(), workerId);
+                claims.remove(workerId, video);
+            }
+        });
+    }
+
+    private boolean isRunning() {
+        return State.STARTED.compareTo(getState()) >= 0;
+    }
+
+    /**
+     * Finds where the parts of a video start. A part is processed in one go, and is the unit of both checkpoints and
+     * parallel processing. Hence the parts last up to the checkpoint interval, and are short enough for each of the
+     * chunk workers to get one as long as they are not shorter than the minimum chunk duration. The parts start at the
+     * key frames closest to the ideal boundaries.
+     *
+     * @return timestamps of the key frames the parts start from. A single part if the video is processed in one go
+     */
+    private List<Long> findPartStarts(Video video) throws IOException {
+        int chunkWorkers = watchDogContext.getChunkWorkers();
+        int checkpointInterval = watchDogContext.getCheckpointIntervalSeconds();
+        if (chunkWorkers <= 1 && checkpointInterval <= 0) {
+            return Collections.singletonList(0L);
+        }
 
-        executorService.submit((Runnable) () -> {
+        List<Long> keyFrames = VideoRemuxer.findKeyFrames(video.getFilePath());
+        if (keyFrames.size() < 2) {
+            return Collections.singletonList(keyFrames.isEmpty() ? 0L : keyFrames.get(0));
+        }
+        long first = keyFrames.get(0);
+        long duration = keyFrames.get(keyFrames.size() - 1) - first;
+        long partDuration = checkpointInterval > 0 ? checkpointInterval * 1000000L : duration;
+        if (chunkWorkers > 1) {
+            long minChunkDuration = Math.max(1, watchDogContext.getChunkMinDurationSeconds()) * 1000000L;
+            partDuration = Math.min(partDuration, Math.max(minChunkDuration, duration / chunkWorkers));
+        }
+
+        List<Long> partStarts = new ArrayList<>();
+        partStarts.add(first);
+        for (long target = first + partDuration; target < first + duration; target += partDuration) {
+            int index = Collections.binarySearch(keyFrames, target);
+            // Last key frame at or before the target
+            long keyFrame = keyFrames.get(index >= 0 ? index : -index - 2);
+            if (keyFrame > partStarts.get(partStarts.size() - 1)) {
+                partStarts.add(keyFrame);
+            }
+        }
+        return partStarts;
+    }
+
+    /**
+     * @return time the first frame of the given part was captured
+     */
+    private LocalDateTime getPartStartTime(Video video, List<Long> partStarts, int part) {
+        return video.getFrom().plusNanos((partStarts.get(part) - partStarts.get(0)) * 1000);
+    }
+
+    /**
+     * Processes a part of a video in to its part file.
+     *
+     * @param frameAnalyzer analyzer of the frames, created by the given analysis
+     * @param running       checked before decoding each frame. Processing is cut short once false
+     */
+    private void processPart(Analysis analysis, Video video, VideoCheckpoint checkpoint, int part,
+                             FrameAnalyzer frameAnalyzer, BooleanSupplier running) throws Exception {
+        List<Long> partStarts = checkpoint.getPartStarts();
+        // The first part starts from the beginning, without seeking
+        long startTimestamp = part == 0 ? -1 : partStarts.get(part);
+        long endTimestamp = part + 1 < partStarts.size() ? partStarts.get(part + 1) : Long.MAX_VALUE;
+        analysis.process(video, checkpoint.getPartFilePath(part), checkpoint.isStreamCopy(),
+                getPartStartTime(video, partStarts, part), startTimestamp, endTimestamp, frameAnalyzer, running);
+    }
+
+    /**
+     * Processes videos one after the other with its own detectors. The faces are detected by the detection threads of
+     * its pipeline, each with its own face detector.
+     */
+    private class Worker implements Runnable {
+
+        private final String workerId;
+        private Analysis analysis;
+
+        private Worker(String workerId) {
+            this.workerId = workerId;
+        }
+
+        @Override
+        public void run() {
+            // Created on the worker thread, which is the only thread using it
+            analysis = new Analysis();
+            try {
+                processVideos();
+            } finally {
+                analysis.close();
+            }
+        }
+
+        private void processVideos() {
             for (; ; ) {
                 if (State.STARTED.compareTo(getState()) < 0) {
                     logger.warn("State is {}. Stopping...", getState());
                     break;
                 }
 
-                logger.debug("Loading unprocessed videos from database");
-                List<Video> videos = Video.getVideos(false, false);
-                Optional<Video> videoOptional = videos.stream().sorted(Comparator.comparingInt(Video::getId)).findFirst();
-                if (videoOptional.isPresent()) {
-                    Video video = videoOptional.get();
-                    logger.debug("Selected video with id : {}, path : {}", video.getId(), video.getFilePath());
+                // Read before claiming, so that a video added in between isn't missed
+                long addedCount = getVideoAddedCount();
+                Video video = Video.claimNext(workerId, watchDogContext.getVideoLeaseSeconds(),
+                        watchDogContext.getVideoMaxAttempts());
+                if (video != null) {
+                    logger.debug("Selected video with id : {}, path : {}, attempt : {}", video.getId(),
+                            video.getFilePath(), video.getAttempts());
                     if (!video.exists()) {
                         logger.debug("Video ({}) doesn't exist. Marking as deleted", video.getFilePath());
                         video.softDelete();
+                        video.releaseClaim(workerId, false);
                     } else {
+                        claims.put(workerId, video);
+                        boolean failed = false;
                         try {
                             processVideo(video);
                         } catch (Exception e) {
+                            failed = true;
                             logger.error("Error occurred when processing video : {}", video.getFilePath(), e);
                         } finally {
-                            if (grabber != null) {
-                                try { grabber.stop(); grabber.release(); } catch (Exception ignored) { }
-                            }
-                            if (recorder != null) {
-                                try { recorder.stop(); recorder.release(); } catch (Exception ignored) { }
+                            claims.remove(workerId);
+                            // Released to be retried, unless done
+                            if (!video.isProcessed() && video.releaseClaim(workerId, failed) && failed) {
+                                notifyVideoAdded();
                             }
                         }
                     }
                 } else {
                     logger.debug("No video found to be processed");
-                    try { Thread.sleep(10000); } catch (InterruptedException ignored) { }
+                    try { awaitVideoAdded(addedCount); } catch (InterruptedException ignored) { }
                 }
             }
-        });
-    }
+        }
 
-    private void processVideo(Video video) throws Exception {
-        grabber = new FFmpegFrameGrabber(new File(video.getFilePath()));
-        grabber.start();
-
-        String processedFilePath = WatchDogUtils.getProcessedVideoStoragePath(video.getFilePath());
-        WatchDogUtils.createDirectoryIfNotExist(processedFilePath.substring(0, processedFilePath.lastIndexOf(Constants.SEPARATOR)));
-
-        recorder = new FFmpegFrameRecorder(processedFilePath, watchDogContext.getFrameWidth(),
-                watchDogContext.getFrameHeight(), grabber.getAudioChannels());
-        recorder.setVideoOption("preset", watchDogContext.getCompressionMode());
-        recorder.setVideoCodec(watchDogContext.getVideoCodec());
-        recorder.setFormat(watchDogContext.getVideoFormat());
-        recorder.setFrameRate(watchDogContext.getFrameRate());
-        recorder.start();
-        // TODO: 12/30/16 Add more options like bit rate to optimize
-
-        int counter = RECORDING_FRAME_THRESHOLD;
-        LocalDateTime timestamp = video.getFrom();
-        long offsetNanos = (long) ((1 / grabber.getFrameRate()) * 1000000000);
-
-        Frame frame;
-        while ((frame = grabber.grab()) != null && State.STARTED.compareTo(getState()) >= 0) {
-            timestamp = timestamp.plusNanos(offsetNanos);
-            final LocalDateTime finalTimestamp = timestamp;
-
-            //detections
-            FrameData frameData = faceDetector.detect(frame);
-            Map<Mat, Gender> genders = genderDetector.predictGender(frameData);
-            Map<Mat, String> ages = ageDetector.predictAge(frameData);
-
-            frameData.getFaces().entrySet().forEach(entry -> {
-                String caption = String.format("%s:[%s]", genders.get(entry.getValue()), ages.get(entry.getValue()));
-                logger.debug("Caption : {}", caption);
-
-                // Recognize and add recognized people to the database
-                Profile profile = personRecognizer.recognize(entry.getValue());
-                ProcessedFrameStat stat = new ProcessedFrameStat(
-                        video.getId(),
-                        finalTimestamp,
-                        caption,
-                        ImageUtils.toBufferedImage(entry.getValue()),
-                        profile != null ? String.valueOf(profile.getId()) : null);
-                stat.checkForDuplicatesAndSave();
-
-                int posX = Math.max(entry.getKey().x() - 10, 0);
-                int posY = Math.max(entry.getKey().y() - 10, 0);
-                // And now put it into the image:
-                putText(frameData.getOriginalMat(), caption, new Point(posX, posY), CV_FONT_HERSHEY_PLAIN, 1.0,
-                        new Scalar(255, 255, 255, 2.0));
-
-            });
-
-            putText(frameData.getOriginalMat(), timestamp.toString(), new Point(10, 20), CV_FONT_HERSHEY_PLAIN, 1.0,
-                    new Scalar(0, 255, 255, 2.0));
+        /**
+         * @return whether the video is still to be processed, not having lost its claim
+         */
+        private boolean isClaimed(Video video) {
+            return isRunning() && claims.get(workerId) == video;
+        }
 
-            try {
-                //                if (grabber.getTimestamp() > recorder.getTimestamp()) {
-                //                    recorder.setTimestamp(grabber.getTimestamp());
-                //                }
-
-                if (watchDogContext.getOperatingMode() == WatchDogContext.OperatingMode.HUMAN_PRESENCE_AWARE) {
-                    if (frameData.getNoOfPeople() > 0) {
-                        counter = RECORDING_FRAME_THRESHOLD; // set to 50
-                        Frame processedFrame = toMatConverter.convert(frameData.getOriginalMat());
-                        recorder.record(processedFrame);
-                    } else if (counter > 0) {
-                        counter--;
-                        Frame processedFrame = toMatConverter.convert(frameData.getOriginalMat());
-                        recorder.record(processedFrame);
-                    }
-                } else {
-                    Frame processedFrame = toMatConverter.convert(frameData.getOriginalMat());
-                    recorder.record(processedFrame);
-                }
-            } catch (Exception e) {
-                logger.warn("Error occurred when recording video : {}", e);
+        private void processVideo(Video video) throws Exception {
+            String processedFilePath = WatchDogUtils.getProcessedVideoStoragePath(video.getFilePath());
+            WatchDogUtils.createDirectoryIfNotExist(processedFilePath.substring(0, processedFilePath.lastIndexOf(Constants.SEPARATOR)));
+
+            VideoCheckpoint checkpoint = VideoCheckpoint.load(video.getFilePath(), processedFilePath);
+            if (checkpoint == null) {
+                checkpoint = VideoCheckpoint.create(video.getFilePath(), processedFilePath, findPartStarts(video),
+                        watchDogContext.getOutputMode() == OutputMode.STREAM_COPY);
+            } else {
+                logger.info("Resuming video ({}) from part {} of {}", video.getFilePath(),
+                        checkpoint.getCompletedParts() + 1, checkpoint.getPartStarts().size());
+            }
+            if (!checkpoint.isComplete()) {
+                // Saved by the parts which were not completed
+                ProcessedFrameStat.deleteStats(video.getId(),
+                        getPartStartTime(video, checkpoint.getPartStarts(), checkpoint.getCompletedParts()));
+                processParts(video, checkpoint);
+            }
+            if (!checkpoint.isComplete() || !isClaimed(video)) {
+                logger.info("Stopped processing video ({}) after {} of {} parts", video.getFilePath(),
+                        checkpoint.getCompletedParts(), checkpoint.getPartStarts().size());
+                return;
             }
-        }
 
-        logger.debug("Finished processing video : {}", video.getFilePath());
-        try { grabber.stop(); grabber.release(); } catch (Exception ignored) { }
-        try { recorder.stop(); recorder.release(); } catch (Exception ignored) { }
+            List<String> partFilePaths = checkpoint.getPartFilePaths();
+            if (checkpoint.isStreamCopy()) {
+                copyKeptFrames(video, processedFilePath, partFilePaths);
+            } else if (partFilePaths.size() == 1) {
+                Files.move(Paths.get(partFilePaths.get(0)), Paths.get(processedFilePath), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                VideoRemuxer.concat(partFilePaths, processedFilePath, watchDogContext.getVideoFormat());
+            }
+            if (!Files.exists(Paths.get(processedFilePath))) {
+                // The raw video is the only copy of the footage then
+                throw new IOException("Processed video wasn't written : " + processedFilePath);
+            }
+            logger.debug("Finished processing video : {}", video.getFilePath());
 
-        if (State.STARTED.equals(getState())) {
             logger.debug("Marking video ({}) as processed", video.getFilePath());
-            video.markProcessed(true);
+            if (!video.markProcessed(workerId, true)) {
+                // Claimed by another worker, which processes it again
+                logger.warn("Lost the claim of video ({}) before marking it as processed", video.getFilePath());
+                return;
+            }
+            checkpoint.delete();
             logger.debug("Removing raw video file({}) since the video is processed", video.getFilePath());
             video.deleteRawFile();
         }
+
+        /**
+         * Copies the frames of the recorded video to be kept, as found in the presence logs of its parts, and writes the
+         * faces to a sidecar file.
+         */
+        private void copyKeptFrames(Video video, String processedFilePath, List<String> partFilePaths)
+                throws IOException {
+            PresenceLog presenceLog = PresenceLog.load(partFilePaths);
+            List<long[]> copiedRanges = VideoRemuxer.copyIntervals(video.getFilePath(), presenceLog.getIntervals(),
+                    processedFilePath, watchDogContext.getVideoFormat());
+            if (copiedRanges.isEmpty()) {
+                // The processed video is still written without frames, as when the frame analyzer keeps none
+                logger.info("Nothing to be kept in video : {}", video.getFilePath());
+            }
+            presenceLog.writeSidecar(processedFilePath + OVERLAY_FILE_SUFFIX, copiedRanges);
+        }
+
+        /**
+         * Processes the parts of a video which are not completed yet, at once if there are chunk workers. The parts are
+         * completed in order, since each frame stat is compared with the one saved before it to drop the duplicates.
+         */
+        private void processParts(Video video, VideoCheckpoint checkpoint) throws Exception {
+            BooleanSupplier running = () -> isClaimed(video);
+            int firstPart = checkpoint.getCompletedParts();
+            int noOfParts = checkpoint.getPartStarts().size();
+            if (chunkExecutor == null || noOfParts - firstPart <= 1) {
+                // Carried over between the parts, for the tracks, the motion background and the kept frames to carry on.
+                // Stats are saved by the pipeline as they come
+                FrameAnalyzer frameAnalyzer = analysis.createFrameAnalyzer(video, null, firstPart > 0);
+                for (int i = firstPart; i < noOfParts && running.getAsBoolean(); i++) {
+                    processPart(analysis, video, checkpoint, i, frameAnalyzer, running);
+                    if (running.getAsBoolean()) {
+                        checkpoint.completePart();
+                    }
+                }
+                return;
+            }
+
+            logger.debug("Processing {} parts of video ({}) at once", noOfParts - firstPart, video.getFilePath());
+            List<Future<List<ProcessedFrameStat>>> parts = new ArrayList<>();
+            try {
+                for (int i = firstPart; i < noOfParts; i++) {
+                    int part = i;
+                    parts.add(chunkExecutor.submit(() -> {
+                        List<ProcessedFrameStat> stats = new ArrayList<>();
+                        // Each part starts clean, since the parts are processed at once
+                        Analysis chunkAnalysis = chunkAnalyses.get();
+                        processPart(chunkAnalysis, video, checkpoint, part,
+                                chunkAnalysis.createFrameAnalyzer(video, stats::add, part > 0), running);
+                        return stats;
+                    }));
+                }
+                for (Future<List<ProcessedFrameStat>> part : parts) {
+                    List<ProcessedFrameStat> stats;
+                    try {
+                        stats = part.get();
+                    } catch (ExecutionException e) {
+                        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                    if (!running.getAsBoolean()) {
+                        return;
+                    }
+                    stats.forEach(ProcessedFrameStat::checkForDuplicatesAndSave);
+                    checkpoint.completePart();
+                }
+            } finally {
+                parts.forEach(part -> part.cancel(true));
+            }
+        }
     }
 
-    @Override
-    protected void stopElement() {
+    /**
+     * Detectors and pipeline used to process a video, or a part of it, by a single thread at a time.
+     */
+    private class Analysis {
+
+        private final GenderDetector genderDetector;
+        private final PersonRecognizer personRecognizer;
+        private final VideoPipeline pipeline;
+
+        private Analysis() {
+            genderDetector = new FisherFacesGenderDetector(Constants.FISHERFACES_GENDER_MODEL);
+            personRecognizer = FisherFacesPersonRecognizer.getInstance();
+
+            pipeline = new VideoPipeline(watchDogContext, watchDogContext.getDetectionThreads(), PIPELINE_QUEUE_CAPACITY);
+            pipeline.start();
+            analyses.add(this);
+        }
+
+        /**
+         * @param statHandler receives the frame stats. They are saved by the pipeline if null
+         * @param midVideo    whether the frames start in the middle of the video, after a part of it
+         * @return analyzer of the frames of the given video, to be used with this analysis
+         */
+        private FrameAnalyzer createFrameAnalyzer(Video video, Consumer<ProcessedFrameStat> statHandler,
+                                                  boolean midVideo) {
+            FrameAnalyzer frameAnalyzer = new FrameAnalyzer(watchDogContext, null, genderDetector, ageDetector,
+                    personRecognizer, video.getId(), statHandler != null ? statHandler : pipeline::saveStat);
+            if (midVideo) {
+                frameAnalyzer.startMidVideo();
+            }
+            return frameAnalyzer;
+        }
+
+        /**
+         * @param outputPath     path of the processed video, or of the presence log if stream copied
+         * @param streamCopy     whether to only log the presence, for the recorded video to be copied
+         * @param from           time the first processed frame was captured
+         * @param startTimestamp timestamp of the grabber to start from, in microseconds, or a negative value to start
+         *                       from the beginning
+         * @param endTimestamp   timestamp of the grabber to stop at, in microseconds
+         * @param frameAnalyzer  analyzer of the frames, created by {@link #createFrameAnalyzer}
+         * @param running        checked before decoding each frame. Processing is cut short once false
+         */
+        private void process(Video video, String outputPath, boolean streamCopy, LocalDateTime from,
+                             long startTimestamp, long endTimestamp, FrameAnalyzer frameAnalyzer,
+                             BooleanSupplier running) throws Exception {
+            FrameGrabber grabber = new FFmpegFrameGrabber(new File(video.getFilePath()));
+            FrameRecorder recorder = null;
+            try {
+                grabber.start();
+                if (startTimestamp >= 0) {
+                    grabber.setTimestamp(startTimestamp);
+                }
+
+                if (streamCopy) {
+                    double frameRate = grabber.getFrameRate() > 0 ? grabber.getFrameRate() : watchDogContext.getFrameRate();
+                    long frameMicros = (long) (1000000 / frameRate);
+                    // Same frames as kept by the frame analyzer when recording
+                    boolean presenceOnly = watchDogContext.getOperatingMode() == OperatingMode.HUMAN_PRESENCE_AWARE;
+                    PresenceLog presenceLog = new PresenceLog(presenceOnly, watchDogContext.getPreRollFrames() * frameMicros,
+                            (presenceOnly ? RECORDING_FRAME_THRESHOLD + 1 : 1) * frameMicros);
+                    pipeline.process(grabber, frameAnalyzer, presenceLog, from, endTimestamp, running);
+                    presenceLog.save(outputPath);
+                } else {
+                    recorder = new FFmpegFrameRecorder(outputPath, watchDogContext.getFrameWidth(),
+                            watchDogContext.getFrameHeight(), grabber.getAudioChannels());
+                    WatchDogUtils.configureRecorder(recorder, watchDogContext, watchDogContext.getProcessingEncoderProfile());
+                    recorder.start();
 
+                    pipeline.process(grabber, frameAnalyzer, recorder, from, endTimestamp, running);
+                }
+                frameAnalyzer.logStatistics();
+            } finally {
+                try { grabber.stop(); grabber.release(); } catch (Exception ignored) { }
+                if (recorder != null) {
+                    try { recorder.stop(); recorder.release(); } catch (Exception ignored) { }
+                }
+            }
+        }
+
+        /**
+         * Stops the pipeline. Does nothing if already closed
+         */
+        private void close() {
+            if (analyses.remove(this)) {
+                pipeline.stop();
+            }
+        }
     }
 }
@@ -22,102 +22,436 @@
 
 package ueg.watchdog.core.processing.video;
 
+import org.bytedeco.javacpp.opencv_core.Rect;
 import org.bytedeco.javacv.FFmpegFrameRecorder;
-import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameRecorder;
-import ueg.watchdog.api.AbstractWatchDogElement;
-import ueg.watchdog.api.FrameListener;
+import ueg.watchdog.Constants;
+import ueg.watchdog.api.*;
+import ueg.watchdog.core.FrameManager;
+import ueg.watchdog.core.FramePool;
 import ueg.watchdog.core.configuration.WatchDogContext;
+import ueg.watchdog.core.configuration.WatchDogContext.AnalysisMode;
 import ueg.watchdog.core.exception.WatchDogRuntitimeException;
-import ueg.watchdog.core.WatchDog;
+import ueg.watchdog.core.processing.AnalysisWorkerPool;
+import ueg.watchdog.core.processing.age.CNNAgeDetector;
+import ueg.watchdog.core.processing.face.FisherFacesPersonRecognizer;
+import ueg.watchdog.core.processing.gender.FisherFacesGenderDetector;
+import ueg.watchdog.model.ProcessedFrameStat;
 import ueg.watchdog.model.Video;
 import ueg.watchdog.util.WatchDogUtils;
 
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static ueg.watchdog.Constants.SEPARATOR;
+import static ueg.watchdog.Constants.VideoConstants.FRAME_CHANNELS;
+import static ueg.watchdog.Constants.VideoConstants.PIPELINE_QUEUE_CAPACITY;
+import static ueg.watchdog.Constants.VideoConstants.SEGMENT_RETRY_MAX_MILLIS;
+import static ueg.watchdog.Constants.VideoConstants.SEGMENT_RETRY_MILLIS;
 
 /**
  * The class responsible for saving video efficiently.
+ * <p>
+ * The feed is recorded into segments of a limited duration and size. A completed segment is finalized and saved to the
+ * database in the background, so that it can be processed while the recording goes on.
+ * <p>
+ * In {@link AnalysisMode#INLINE} mode, the frames are analysed as they are captured and only the annotated frames to
+ * be kept are recorded, straight into the processed videos. Hence the videos need no further processing. The faces are
+ * detected by the {@link AnalysisWorkerPool} shared by all the feeds, and the frames are put back in order, tracked,
+ * classified and recorded by a thread of the feed. The frame listener only copies the frames and finds the motion in
+ * them, so as not to hold back the capturing.
  *
  * @author Erandi Ganepola
  */
 public class VideoRecordingManager extends AbstractWatchDogElement implements FrameListener {
 
+    private static final int FINALIZE_TIMEOUT_SECONDS = 30;
+    /**
+     * Marks the end of the frames in the inline queue
+     */
+    private static final InlineFrame END_OF_FRAMES = new InlineFrame(null, 0, null);
+
+    /**
+     * Recorder of the current segment, or null if none could be started. Used only on the recording thread, which is
+     * the inline recording thread in inline mode
+     */
     private FFmpegFrameRecorder frameRecorder;
+    private int segmentStartFailures;
+    private long nextSegmentStartMillis;
     private String currentVideoFile;
-    private ExecutorService executorService;
+    private String recordedVideoFile;
     private String storagePath;
+    private long segmentStartTimestamp;
+    private LocalDateTime segmentStartTime;
+    private long segmentFrames;
+    /**
+     * Frames dropped by the frame manager for this listener until the current segment started
+     */
+    private long droppedFrames;
+    private ExecutorService segmentFinalizer;
+    private final FrameManager frameManager;
+    private final AnalysisWorkerPool analysisWorkerPool;
+    private final String feedName;
+    private final List<Consumer<Video>> videoSavedListeners = new CopyOnWriteArrayList<>();
 
-    public VideoRecordingManager(WatchDogContext context) {
+    // Inline analysis
+    private boolean inline;
+    private FrameAnalyzer frameAnalyzer;
+    private List<ProcessedFrameStat> segmentStats;
+    /**
+     * Copies of the captured frames being analysed, which are annotated and recorded
+     */
+    private FramePool inlinePool;
+    private BlockingQueue<InlineFrame> inlineQueue;
+    private ExecutorService inlineRecorder;
+
+    /**
+     * @param context            WatchDog context
+     * @param frameManager       frame manager of the feed to be recorded
+     * @param analysisWorkerPool workers detecting the faces of the frames analysed inline
+     * @param feedName           name of the feed. Videos are stored date wise under a directory with this name
+     */
+    public VideoRecordingManager(WatchDogContext context, FrameManager frameManager,
+                                 AnalysisWorkerPool analysisWorkerPool, String feedName) {
         super(context);
+        this.frameManager = frameManager;
+        this.analysisWorkerPool = analysisWorkerPool;
+        this.feedName = feedName;
+    }
+
+    /**
+     * @param listener called on the finalizing thread once a recorded video is saved in the database
+     */
+    public void addVideoSavedListener(Consumer<Video> listener) {
+        videoSavedListeners.add(listener);
     }
 
     @Override
     protected void startElement() {
-        storagePath = WatchDogUtils.getVideoStoragePath(watchDogContext.getStoragePath());
+        inline = watchDogContext.getAnalysisMode() == AnalysisMode.INLINE;
+        if (inline) {
+            logger.info("Analysing frames of {} inline", feedName);
+            // Only used by the inline recording thread. The faces are detected by the workers of the pool
+            GenderDetector genderDetector = new FisherFacesGenderDetector(Constants.FISHERFACES_GENDER_MODEL);
+            // Kept across the segments, for the tracks, pre roll and post roll to carry on in to the next segment. The
+            // stats go to the segment being recorded, and get its video id once it is saved
+            frameAnalyzer = new FrameAnalyzer(watchDogContext, null, genderDetector,
+                    CNNAgeDetector.getInstance(watchDogContext), FisherFacesPersonRecognizer.getInstance(), 0,
+                    stat -> segmentStats.add(stat));
+            // Enough buffers for the queued frames, plus the ones being worked on by the listener and the recorder
+            inlinePool = new FramePool(PIPELINE_QUEUE_CAPACITY + 2, watchDogContext.getFrameWidth(),
+                    watchDogContext.getFrameHeight(), FRAME_CHANNELS);
+            inlineQueue = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+            inlineRecorder = Executors.newSingleThreadExecutor();
+        }
+
+        segmentFinalizer = Executors.newSingleThreadExecutor();
+        // Retried on the next frames if it fails
+        retryStartSegment(0);
+        if (inline) {
+            inlineRecorder.submit(this::recordInline);
+        }
+        frameManager.addFrameListener(this);
+    }
+
+    @Override
+    protected void stopElement() {
+        frameManager.removeFrameListener(this);
+        if (inline) {
+            // The frames queued so far are recorded before the segment is finished
+            try {
+                inlineQueue.put(END_OF_FRAMES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inlineRecorder.shutdown();
+            try {
+                if (!inlineRecorder.awaitTermination(FINALIZE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    logger.warn("Inline analysed frames weren't recorded in {} seconds", FINALIZE_TIMEOUT_SECONDS);
+                    inlineRecorder.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            logger.debug("Inline analysis of {} dropped {} frames for lack of buffers", feedName,
+                    inlinePool.getDroppedFrames());
+        }
+        finishSegment();
+
+        segmentFinalizer.shutdown();
+        try {
+            if (!segmentFinalizer.awaitTermination(FINALIZE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Video segments weren't finalized in {} seconds", FINALIZE_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void frameAdded(FrameBuffer frameBuffer, long timestamp) {
+        if (inline) {
+            submitInline(frameBuffer, timestamp);
+            return;
+        }
+        if (!prepareSegment(timestamp)) {
+            return;
+        }
+
+        try {
+            frameRecorder.setTimestamp(timestamp - segmentStartTimestamp);
+            frameRecorder.record(frameBuffer.getFrame());
+            segmentFrames++;
+        } catch (FrameRecorder.Exception e) {
+            logger.error("Error occurred when video a frame", e);
+        }
+    }
+
+    /**
+     * Finishes the current segment if it is complete, and starts the next one if needed.
+     *
+     * @return false if there is no segment to record the frame of the given timestamp to
+     */
+    private boolean prepareSegment(long timestamp) {
+        if (frameRecorder != null && isSegmentComplete(timestamp)) {
+            finishSegment();
+        }
+        return frameRecorder != null || retryStartSegment(timestamp);
+    }
+
+    /**
+     * Hands a captured frame over to the analysis workers, and queues it to be recorded in order. Called in frame
+     * order, on the listener thread.
+     */
+    private void submitInline(FrameBuffer frameBuffer, long timestamp) {
+        // The captured frame is shared with the other listeners. Hence the annotations go on a copy
+        FrameBuffer copy = inlinePool.copyOf(frameBuffer.getFrame());
+        if (copy == null) {
+            return;
+        }
+        try {
+            Rect motion = frameAnalyzer.findMotion(copy.getFrame());
+            Future<FrameData> detection = analysisWorkerPool.submit((faceDetector, personRecognizer) ->
+                    frameAnalyzer.detectFaces(faceDetector, copy.getFrame(), motion));
+            inlineQueue.put(new InlineFrame(copy, timestamp, detection));
+        } catch (Exception e) {
+            copy.release();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            } else {
+                logger.error("Unable to analyse a frame of {}", feedName, e);
+            }
+        }
+    }
+
+    /**
+     * Tracks, classifies and records the analysed frames in order, until the end of the frames is queued. Runs on the
+     * inline recording thread, which owns the segments in inline mode.
+     */
+    private void recordInline() {
+        for (; ; ) {
+            InlineFrame inlineFrame;
+            try {
+                inlineFrame = inlineQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (inlineFrame == END_OF_FRAMES) {
+                return;
+            }
+            try {
+                FrameData frameData = inlineFrame.detection.get();
+                if (prepareSegment(inlineFrame.timestamp)) {
+                    LocalDateTime frameTime = segmentStartTime.plusNanos(
+                            TimeUnit.MICROSECONDS.toNanos(inlineFrame.timestamp - segmentStartTimestamp));
+                    frameAnalyzer.analyze(frameData, frameTime, frameRecorder::record);
+                    segmentFrames++;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                logger.error("Error occurred when detecting the faces of a frame of {}", feedName, e.getCause());
+            } catch (Exception e) {
+                logger.error("Error occurred when recording a frame of {}", feedName, e);
+            } finally {
+                inlineFrame.buffer.release();
+            }
+        }
+    }
+
+    /**
+     * Starts the next segment, unless starting the previous one failed less than the retry delay ago. The delay grows
+     * with each failure.
+     *
+     * @return true if the segment is started
+     */
+    private boolean retryStartSegment(long startTimestamp) {
+        long now = System.currentTimeMillis();
+        if (now < nextSegmentStartMillis) {
+            return false;
+        }
+        try {
+            startSegment(startTimestamp);
+            segmentStartFailures = 0;
+            return true;
+        } catch (WatchDogRuntitimeException e) {
+            long delay = Math.min(SEGMENT_RETRY_MAX_MILLIS, SEGMENT_RETRY_MILLIS << Math.min(segmentStartFailures, 16));
+            segmentStartFailures++;
+            nextSegmentStartMillis = now + delay;
+            logger.error("Unable to start a new video segment of {}. Retrying in {} ms", feedName, delay);
+            return false;
+        }
+    }
+
+    /**
+     * @param startTimestamp timestamp of the first frame of the segment
+     */
+    private void startSegment(long startTimestamp) {
+        // Evaluated per segment, so that the segments go into the directory of the day they were recorded
+        storagePath = WatchDogUtils.getVideoStoragePath(watchDogContext.getStoragePath() + SEPARATOR + feedName);
         currentVideoFile = storagePath + SEPARATOR + WatchDogUtils.getTimestampedVideoFileName() + "." + watchDogContext.getVideoFormat();
         logger.info("Video manager is using storagePath : {}, currentVideoFileName : {}", storagePath, currentVideoFile);
         WatchDogUtils.createDirectoryIfNotExist(storagePath);
         logger.debug("Created video storage directory");
 
-        WatchDog.getInstance().getFrameManager().addFrameListener(this);
-
-        executorService = Executors.newSingleThreadExecutor();
+        recordedVideoFile = currentVideoFile;
+        if (inline) {
+            recordedVideoFile = WatchDogUtils.getProcessedVideoStoragePath(currentVideoFile);
+            WatchDogUtils.createDirectoryIfNotExist(recordedVideoFile.substring(0, recordedVideoFile.lastIndexOf(SEPARATOR)));
+        }
 
-        frameRecorder = new FFmpegFrameRecorder(currentVideoFile, watchDogContext.getFrameWidth(),
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(recordedVideoFile, watchDogContext.getFrameWidth(),
                 watchDogContext.getFrameHeight(), 0);
 
-        frameRecorder.setVideoOption("preset", watchDogContext.getCompressionMode());
-        frameRecorder.setVideoCodec(watchDogContext.getVideoCodec());
-        frameRecorder.setFormat(watchDogContext.getVideoFormat());
-        frameRecorder.setFrameRate(watchDogContext.getFrameRate());
+        WatchDogUtils.configureRecorder(recorder, watchDogContext, watchDogContext.getRecordingEncoderProfile());
 
         try {
-            frameRecorder.start();
+            recorder.start();
         } catch (FrameRecorder.Exception e) {
             logger.error("Error when starting the frame recorder", e);
+            try {
+                recorder.release();
+            } catch (FrameRecorder.Exception ignored) { }
             throw new WatchDogRuntitimeException("Error when starting the frame recorder", e);
         }
+        frameRecorder = recorder;
+        segmentStartTimestamp = startTimestamp;
+        segmentStartTime = LocalDateTime.now();
+        segmentFrames = 0;
+
+        if (inline) {
+            // Stats are saved once the video is saved in the database
+            segmentStats = new ArrayList<>();
+        }
     }
 
-    @Override
-    protected void stopElement() {
-        WatchDog.getInstance().getFrameManager().removeFrameListener(this);
-        executorService.shutdown();
+    private boolean isSegmentComplete(long timestamp) {
+        if (timestamp - segmentStartTimestamp >= TimeUnit.SECONDS.toMicros(watchDogContext.getSegmentDurationSeconds())) {
+            return true;
+        }
+        // The file size is checked about once a second
+        int sizeCheckInterval = Math.max(1, (int) watchDogContext.getFrameRate());
+        return segmentFrames > 0 && segmentFrames % sizeCheckInterval == 0
+                && new File(recordedVideoFile).length() >= watchDogContext.getSegmentMaxBytes();
+    }
+
+    /**
+     * Hands the current segment, if any, over to be finalized in the background.
+     */
+    private void finishSegment() {
+        FFmpegFrameRecorder recorder = frameRecorder;
+        if (recorder == null) {
+            return;
+        }
+        // Owned by the finalizer from now on
+        frameRecorder = null;
+        String videoFile = recordedVideoFile;
+        String videoDirectory = storagePath;
+        LocalDateTime endTime = LocalDateTime.now();
+        List<ProcessedFrameStat> stats = segmentStats;
+        if (frameAnalyzer != null) {
+            frameAnalyzer.logStatistics();
+        }
+        logDroppedFrames(videoFile);
+        segmentFinalizer.submit(() -> finalizeSegment(recorder, videoFile, videoDirectory, endTime, stats));
+    }
 
+    /**
+     * The capturing doesn't wait for a recorder which can't keep up for longer than the block timeout of the frame
+     * manager, so as not to hold back the other listeners. The frames dropped instead are logged per segment.
+     */
+    private void logDroppedFrames(String videoFile) {
+        long totalDroppedFrames = frameManager.getListenerMetrics().stream()
+                .filter(metrics -> metrics.getListener() == this)
+                .mapToLong(FrameManager.ListenerMetrics::getDroppedFrames)
+                .sum();
+        if (totalDroppedFrames > droppedFrames) {
+            logger.warn("Dropped {} frames of video ({}) since the recording couldn't keep up",
+                    totalDroppedFrames - droppedFrames, videoFile);
+        }
+        droppedFrames = totalDroppedFrames;
+    }
+
+    /**
+     * @param videoFile      recorded video file
+     * @param videoDirectory directory of the raw videos
+     * @param stats          stats of the inline analysed frames, or null if not analysed
+     */
+    private void finalizeSegment(FFmpegFrameRecorder recorder, String videoFile, String videoDirectory,
+                                 LocalDateTime endTime, List<ProcessedFrameStat> stats) {
         try {
-            frameRecorder.stop();
-            frameRecorder.release();
+            recorder.stop();
+            recorder.release();
         } catch (FrameRecorder.Exception e) {
             logger.error("Error when stopping frame recorder", e);
         }
 
         logger.debug("Finalizing video file name");
-        String finalName = WatchDogUtils.finalizeVideo(currentVideoFile);
+        String finalName = WatchDogUtils.finalizeVideo(videoFile, endTime);
         if (finalName == null) {
             logger.error("Unable to finalize video file name");
         } else {
             logger.debug("Finalized name to : {}", finalName);
-            Video video = Video.createVideo(finalName, storagePath + SEPARATOR + finalName);
+            Video video = Video.createVideo(finalName, videoDirectory + SEPARATOR + finalName, stats != null);
             if (video.save()) {
                 logger.info("Saved video({}) info to database", finalName);
+                if (stats != null) {
+                    stats.forEach(stat -> {
+                        stat.setVideoId(video.getId());
+                        stat.checkForDuplicatesAndSave();
+                    });
+                }
+                videoSavedListeners.forEach(listener -> listener.accept(video));
             } else {
                 logger.warn("Unable to save video ({}) to database", finalName);
             }
         }
     }
 
-    @Override
-    public void frameAdded(Frame frame, long timestamp) {
-        executorService.submit(() -> {
-            try {
-                frameRecorder.setTimestamp(timestamp);
-                frameRecorder.record(frame);
-            } catch (FrameRecorder.Exception e) {
-                logger.error("Error occurred when video a frame", e);
-            }
-        });
+    /**
+     * A captured frame queued to be recorded once its faces are detected.
+     */
+    private static class InlineFrame {
+
+        private final FrameBuffer buffer;
+        private final long timestamp;
+        private final Future<FrameData> detection;
+
+        private InlineFrame(FrameBuffer buffer, long timestamp, Future<FrameData> detection) {
+            this.buffer = buffer;
+            this.timestamp = timestamp;
+            this.detection = detection;
+        }
     }
 }
@@ -0,0 +1,332 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing.video;
+
+import org.bytedeco.javacpp.PointerPointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.bytedeco.javacpp.avcodec.*;
+import static org.bytedeco.javacpp.avformat.*;
+import static org.bytedeco.javacpp.avutil.*;
+
+/**
+ * Works on the compressed frames of videos, without decoding or encoding them.
+ *
+ * @author Erandi Ganepola
+ */
+public class VideoRemuxer {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoRemuxer.class);
+
+    static {
+        av_register_all();
+    }
+
+    private VideoRemuxer() {
+    }
+
+    /**
+     * Finds the key frames of a video by reading its packets, which is much faster than decoding it. Seeking to a key
+     * frame doesn't decode the frames before it.
+     *
+     * @param filePath path of the video
+     * @return sorted timestamps of the key frames, in microseconds as given by the frame grabbers
+     * @throws IOException if the video can't be read
+     */
+    public static List<Long> findKeyFrames(String filePath) throws IOException {
+        AVFormatContext input = openInput(filePath);
+        try {
+            int videoStream = -1;
+            for (int i = 0; i < input.nb_streams(); i++) {
+                if (input.streams(i).codec().codec_type() == AVMEDIA_TYPE_VIDEO) {
+                    videoStream = i;
+                    break;
+                }
+            }
+            if (videoStream < 0) {
+                throw new IOException("No video stream in : " + filePath);
+            }
+
+            AVRational timeBase = input.streams(videoStream).time_base();
+            AVRational microseconds = new AVRational().num(1).den(AV_TIME_BASE);
+            List<Long> keyFrames = new ArrayList<>();
+            AVPacket packet = new AVPacket();
+            while (av_read_frame(input, packet) >= 0) {
+                try {
+                    if (packet.stream_index() == videoStream && (packet.flags() & AV_PKT_FLAG_KEY) != 0) {
+                        long pts = packet.pts() != AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+                        keyFrames.add(av_rescale_q(pts, timeBase, microseconds));
+                    }
+                } finally {
+                    av_packet_unref(packet);
+                }
+            }
+            Collections.sort(keyFrames);
+            return keyFrames;
+        } finally {
+            avformat_close_input(input);
+        }
+    }
+
+    /**
+     * Joins videos one after the other in to a single video. The videos must have the same streams, encoded the same
+     * way, and each of them must start with a key frame, like the videos written by separate recorders with the same
+     * settings.
+     *
+     * @param inputPaths paths of the videos, in order
+     * @param outputPath path of the joined video
+     * @param format     container format of the joined video
+     * @throws IOException if a video can't be read or the joined video can't be written
+     */
+    public static void concat(List<String> inputPaths, String outputPath, String format) throws IOException {
+        AVFormatContext output = new AVFormatContext(null);
+        check(avformat_alloc_output_context2(output, null, format, outputPath), "create", outputPath);
+        AVPacket packet = new AVPacket();
+        // Per stream, in the time base of the output. Each video starts where the previous ones ended
+        long[] offsets = null;
+        long[] ends = null;
+        try {
+            for (String inputPath : inputPaths) {
+                AVFormatContext input = openInput(inputPath);
+                try {
+                    if (offsets == null) {
+                        openOutput(input, output, outputPath);
+                        offsets = new long[input.nb_streams()];
+                        ends = new long[input.nb_streams()];
+                    } else if (input.nb_streams() != offsets.length) {
+                        throw new IOException("Streams of " + inputPath + " don't match the previous videos");
+                    }
+
+                    long[] firstTimestamps = new long[offsets.length];
+                    Arrays.fill(firstTimestamps, AV_NOPTS_VALUE);
+                    while (av_read_frame(input, packet) >= 0) {
+                        try {
+                            int index = packet.stream_index();
+                            av_packet_rescale_ts(packet, input.streams(index).time_base(), output.streams(index).time_base());
+                            if (firstTimestamps[index] == AV_NOPTS_VALUE) {
+                                firstTimestamps[index] = packet.dts() != AV_NOPTS_VALUE ? packet.dts() : packet.pts();
+                            }
+                            long shift = offsets[index] - firstTimestamps[index];
+                            if (packet.pts() != AV_NOPTS_VALUE) {
+                                packet.pts(packet.pts() + shift);
+                            }
+                            if (packet.dts() != AV_NOPTS_VALUE) {
+                                packet.dts(packet.dts() + shift);
+                            }
+                            long end = Math.max(packet.pts(), packet.dts()) + Math.max(1, packet.duration());
+                            ends[index] = Math.max(ends[index], end);
+                            packet.pos(-1);
+                            check(av_interleaved_write_frame(output, packet), "write", outputPath);
+                        } finally {
+                            av_packet_unref(packet);
+                        }
+                    }
+                } finally {
+                    avformat_close_input(input);
+                }
+                System.arraycopy(ends, 0, offsets, 0, offsets.length);
+            }
+
+            if (offsets != null) {
+                check(av_write_trailer(output), "finish", outputPath);
+            }
+            logger.debug("Joined {} videos in to : {}", inputPaths.size(), outputPath);
+        } finally {
+            if (output.pb() != null && (output.oformat().flags() & AVFMT_NOFILE) == 0) {
+                avio_close(output.pb());
+            }
+            avformat_free_context(output);
+        }
+    }
+
+    /**
+     * Copies the given intervals of a video in to another video, one after the other. Since the frames are not encoded
+     * again, the intervals are widened to whole groups of pictures, from the key frame at or before their start up to
+     * the key frame after their end.
+     *
+     * @param inputPath  path of the video
+     * @param intervals  sorted intervals to be copied, as {start, end} in microseconds as given by the frame grabbers
+     * @param outputPath path of the copy. A video without frames if there is nothing to copy
+     * @param format     container format of the copy
+     * @return the copied ranges, as {start, end, start in the copy}, or an empty list if there was nothing to copy
+     * @throws IOException if the video can't be read or the copy can't be written
+     */
+    public static List<long[]> copyIntervals(String inputPath, List<long[]> intervals, String outputPath,
+                                             String format) throws IOException {
+        List<long[]> ranges = toKeyFrameRanges(findKeyFrames(inputPath), intervals);
+        AVFormatContext input = openInput(inputPath);
+        AVFormatContext output = new AVFormatContext(null);
+        try {
+            check(avformat_alloc_output_context2(output, null, format, outputPath), "create", outputPath);
+            openOutput(input, output, outputPath);
+
+            AVRational microseconds = new AVRational().num(1).den(AV_TIME_BASE);
+            long[] lastDts = new long[input.nb_streams()];
+            Arrays.fill(lastDts, Long.MIN_VALUE);
+            long copiedEnd = 0;
+            AVPacket packet = new AVPacket();
+            while (!ranges.isEmpty() && av_read_frame(input, packet) >= 0) {
+                try {
+                    int index = packet.stream_index();
+                    AVRational inputTimeBase = input.streams(index).time_base();
+                    AVRational outputTimeBase = output.streams(index).time_base();
+                    long pts = packet.pts() != AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+                    long timestamp = av_rescale_q(pts, inputTimeBase, microseconds);
+                    long[] range = findRange(ranges, timestamp);
+                    if (range == null) {
+                        continue;
+                    }
+
+                    av_packet_rescale_ts(packet, inputTimeBase, outputTimeBase);
+                    long shift = av_rescale_q(range[2] - range[0], microseconds, outputTimeBase);
+                    if (packet.pts() != AV_NOPTS_VALUE) {
+                        packet.pts(packet.pts() + shift);
+                    }
+                    if (packet.dts() != AV_NOPTS_VALUE) {
+                        // Frames reordered across a cut may go back in time
+                        long dts = Math.max(packet.dts() + shift, lastDts[index] + 1);
+                        packet.dts(dts);
+                        if (packet.pts() != AV_NOPTS_VALUE && packet.pts() < dts) {
+                            packet.pts(dts);
+                        }
+                        lastDts[index] = dts;
+                    }
+                    packet.pos(-1);
+                    copiedEnd = Math.max(copiedEnd, timestamp - range[0] + range[2]
+                            + av_rescale_q(packet.duration(), inputTimeBase, microseconds));
+                    check(av_interleaved_write_frame(output, packet), "write", outputPath);
+                } finally {
+                    av_packet_unref(packet);
+                }
+            }
+            check(av_write_trailer(output), "finish", outputPath);
+            if (ranges.isEmpty()) {
+                return ranges;
+            }
+
+            long[] lastRange = ranges.get(ranges.size() - 1);
+            if (lastRange[1] == Long.MAX_VALUE) {
+                lastRange[1] = lastRange[0] + copiedEnd - lastRange[2];
+            }
+            logger.debug("Copied {} ranges of {} in to : {}", ranges.size(), inputPath, outputPath);
+            return ranges;
+        } finally {
+            if (output.pb() != null && (output.oformat().flags() & AVFMT_NOFILE) == 0) {
+                avio_close(output.pb());
+            }
+            avformat_free_context(output);
+            avformat_close_input(input);
+        }
+    }
+
+    /**
+     * @return groups of pictures overlapping the intervals, merged when consecutive, as {start, end, start in the copy}
+     */
+    private static List<long[]> toKeyFrameRanges(List<Long> keyFrames, List<long[]> intervals) {
+        List<long[]> ranges = new ArrayList<>();
+        long copiedDuration = 0;
+        for (int i = 0; i < keyFrames.size(); i++) {
+            long start = keyFrames.get(i);
+            long end = i + 1 < keyFrames.size() ? keyFrames.get(i + 1) : Long.MAX_VALUE;
+            boolean overlaps = false;
+            for (long[] interval : intervals) {
+                if (interval[0] < end && interval[1] > start) {
+                    overlaps = true;
+                    break;
+                }
+            }
+            if (!overlaps) {
+                continue;
+            }
+
+            long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && last[1] == start) {
+                last[1] = end;
+            } else {
+                if (last != null) {
+                    copiedDuration += last[1] - last[0];
+                }
+                ranges.add(new long[]{start, end, copiedDuration});
+            }
+        }
+        return ranges;
+    }
+
+    private static long[] findRange(List<long[]> ranges, long timestamp) {
+        for (long[] range : ranges) {
+            if (timestamp >= range[0] && timestamp < range[1]) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    private static AVFormatContext openInput(String filePath) throws IOException {
+        AVFormatContext input = new AVFormatContext(null);
+        check(avformat_open_input(input, filePath, null, (AVDictionary) null), "open", filePath);
+        if (avformat_find_stream_info(input, (PointerPointer) null) < 0) {
+            avformat_close_input(input);
+            throw new IOException("Unable to find the streams of : " + filePath);
+        }
+        return input;
+    }
+
+    /**
+     * Creates the streams of the output like the ones of the given input, and writes the header.
+     */
+    private static void openOutput(AVFormatContext input, AVFormatContext output, String outputPath)
+            throws IOException {
+        for (int i = 0; i < input.nb_streams(); i++) {
+            AVStream inputStream = input.streams(i);
+            AVStream outputStream = avformat_new_stream(output, inputStream.codec().codec());
+            if (outputStream == null) {
+                throw new IOException("Unable to create a stream in : " + outputPath);
+            }
+            check(avcodec_copy_context(outputStream.codec(), inputStream.codec()), "copy the streams to", outputPath);
+            outputStream.codec().codec_tag(0);
+            outputStream.time_base(inputStream.time_base());
+            if ((output.oformat().flags() & AVFMT_GLOBALHEADER) != 0) {
+                outputStream.codec().flags(outputStream.codec().flags() | CODEC_FLAG_GLOBAL_HEADER);
+            }
+        }
+
+        if ((output.oformat().flags() & AVFMT_NOFILE) == 0) {
+            AVIOContext pb = new AVIOContext(null);
+            check(avio_open(pb, outputPath, AVIO_FLAG_WRITE), "open", outputPath);
+            output.pb(pb);
+        }
+        check(avformat_write_header(output, (AVDictionary) null), "write the header of", outputPath);
+    }
+
+    private static void check(int result, String action, String filePath) throws IOException {
+        if (result < 0) {
+            throw new IOException("Unable to " + action + " : " + filePath + " (error " + result + ")");
+        }
+    }
+}
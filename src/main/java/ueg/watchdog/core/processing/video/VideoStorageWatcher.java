@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.processing.video;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static ueg.watchdog.Constants.VideoConstants.PROCESSES_VIDEO_DIR;
+
+/**
+ * Watches the video storage directory, including the directories created in it later, for new video files. Videos
+ * recorded by other processes sharing the storage are noticed this way. The directories of the processed videos are not
+ * watched.
+ * <p>
+ * A video is saved in the database right after its file is renamed to the final name, which is seen as a created file.
+ * Hence the callback is run once the directory has been quiet for a while, instead of for each event.
+ *
+ * @author Erandi Ganepola
+ */
+public class VideoStorageWatcher implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoStorageWatcher.class);
+
+    private final Path storageDirectory;
+    private final long settleMillis;
+    private final Runnable onVideoAdded;
+    private WatchService watchService;
+
+    /**
+     * @param settleMillis time without new events before running the callback
+     * @param onVideoAdded run when video files are added
+     */
+    public VideoStorageWatcher(Path storageDirectory, long settleMillis, Runnable onVideoAdded) {
+        this.storageDirectory = storageDirectory;
+        this.settleMillis = settleMillis;
+        this.onVideoAdded = onVideoAdded;
+    }
+
+    /**
+     * @throws IOException if the directory can't be watched
+     */
+    public void start() throws IOException {
+        Files.createDirectories(storageDirectory);
+        watchService = FileSystems.getDefault().newWatchService();
+        registerAll(storageDirectory);
+    }
+
+    /**
+     * Stops watching. {@link #run()} returns soon after.
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Error when closing the watch service of : {}", storageDirectory, e);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (; ; ) {
+                WatchKey key = watchService.take();
+                boolean videoAdded = false;
+                // Events keep coming while a segment is being finalized
+                while (key != null) {
+                    videoAdded |= handleEvents(key);
+                    key = watchService.poll(settleMillis, TimeUnit.MILLISECONDS);
+                }
+                if (videoAdded) {
+                    onVideoAdded.run();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            logger.debug("Stopped watching : {}", storageDirectory);
+        }
+    }
+
+    /**
+     * @return true if a file was added
+     */
+    private boolean handleEvents(WatchKey key) {
+        Path directory = (Path) key.watchable();
+        boolean fileAdded = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                fileAdded = true;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                // Directories of the feeds and of each day
+                registerAll(path);
+            } else if (!directory.endsWith(PROCESSES_VIDEO_DIR)) {
+                fileAdded = true;
+            }
+        }
+        key.reset();
+        return fileAdded;
+    }
+
+    private void registerAll(Path directory) {
+        try (Stream<Path> directories = Files.walk(directory)) {
+            directories.filter(Files::isDirectory)
+                    .filter(path -> !path.endsWith(PROCESSES_VIDEO_DIR))
+                    .forEach(path -> {
+                        try {
+                            path.register(watchService, ENTRY_CREATE);
+                        } catch (IOException e) {
+                            logger.warn("Unable to watch directory : {}", path, e);
+                        }
+                    });
+        } catch (IOException e) {
+            logger.warn("Unable to watch the directories in : {}", directory, e);
+        }
+    }
+}
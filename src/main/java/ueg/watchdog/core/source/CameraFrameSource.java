@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.source;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import ueg.watchdog.api.FrameSource;
+import ueg.watchdog.core.configuration.WatchDogContext;
+
+import java.io.IOException;
+
+/**
+ * Grabs frames from a camera device (ex: /dev/video0) at the frame rate and the resolution of the WatchDog context.
+ *
+ * @author Erandi Ganepola
+ */
+public class CameraFrameSource implements FrameSource {
+
+    private final String device;
+    private final FFmpegFrameGrabber frameGrabber;
+
+    public CameraFrameSource(String device, WatchDogContext context) {
+        this.device = device;
+        frameGrabber = new FFmpegFrameGrabber(device);
+        frameGrabber.setFormat(context.getVideoSourceFormat());
+        frameGrabber.setFrameRate(context.getFrameRate());
+        frameGrabber.setImageWidth(context.getFrameWidth());
+        frameGrabber.setImageHeight(context.getFrameHeight());
+    }
+
+    @Override
+    public void start() throws IOException {
+        frameGrabber.start();
+    }
+
+    @Override
+    public Frame grab() throws IOException {
+        return frameGrabber.grab();
+    }
+
+    @Override
+    public long getTimestamp() {
+        return frameGrabber.getTimestamp();
+    }
+
+    @Override
+    public double getFrameRate() {
+        return frameGrabber.getFrameRate();
+    }
+
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+
+    @Override
+    public void stop() throws IOException {
+        frameGrabber.release();
+        frameGrabber.stop();
+    }
+
+    @Override
+    public String toString() {
+        return "camera:" + device;
+    }
+}
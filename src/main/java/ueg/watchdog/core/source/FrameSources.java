@@ -0,0 +1,55 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.source;
+
+import ueg.watchdog.api.FrameSource;
+import ueg.watchdog.core.configuration.WatchDogContext;
+
+import java.io.File;
+
+/**
+ * Creates the {@link FrameSource} of a configured video source.
+ *
+ * @author Erandi Ganepola
+ */
+public final class FrameSources {
+
+    private FrameSources() { }
+
+    /**
+     * A directory is replayed as a sequence of images and a regular file is replayed as a video. Anything else (ex:
+     * /dev/video0) is treated as a camera device.
+     *
+     * @param source  configured video source
+     * @param context WatchDog context
+     * @return frame source for the given video source
+     */
+    public static FrameSource create(String source, WatchDogContext context) {
+        File file = new File(source);
+        if (file.isDirectory()) {
+            return new ImageDirectoryFrameSource(file, context.getFrameRate());
+        } else if (file.isFile()) {
+            return new VideoFileFrameSource(file);
+        }
+        return new CameraFrameSource(source, context);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.source;
+
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import ueg.watchdog.api.FrameSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static org.bytedeco.javacpp.opencv_core.IplImage;
+import static org.bytedeco.javacpp.opencv_core.cvReleaseImage;
+import static org.bytedeco.javacpp.opencv_imgcodecs.CV_LOAD_IMAGE_COLOR;
+import static org.bytedeco.javacpp.opencv_imgcodecs.cvLoadImage;
+
+/**
+ * Replays the images of a directory, in the order of their file names, as video frames of the given frame rate.
+ *
+ * @author Erandi Ganepola
+ */
+public class ImageDirectoryFrameSource implements FrameSource {
+
+    private final File imageDir;
+    private final double frameRate;
+    private final OpenCVFrameConverter.ToIplImage iplImageConverter;
+
+    private File[] imageFiles;
+    private int position;
+    private IplImage currentImage;
+
+    public ImageDirectoryFrameSource(File imageDir, double frameRate) {
+        this.imageDir = imageDir;
+        this.frameRate = frameRate;
+        iplImageConverter = new OpenCVFrameConverter.ToIplImage();
+    }
+
+    @Override
+    public void start() throws IOException {
+        imageFiles = imageDir.listFiles(File::isFile);
+        if (imageFiles == null) {
+            throw new IOException("Unable to list images in : " + imageDir.getAbsolutePath());
+        }
+        Arrays.sort(imageFiles, Comparator.comparing(File::getName));
+        position = 0;
+    }
+
+    @Override
+    public Frame grab() throws IOException {
+        releaseCurrentImage();
+        while (position < imageFiles.length) {
+            File imageFile = imageFiles[position++];
+            currentImage = cvLoadImage(imageFile.getAbsolutePath(), CV_LOAD_IMAGE_COLOR);
+            if (currentImage != null && !currentImage.isNull()) {
+                return iplImageConverter.convert(currentImage);
+            }
+            // Not an image. Skip to the next file
+        }
+        return null;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return (long) (Math.max(position - 1, 0) * 1000000 / frameRate);
+    }
+
+    @Override
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public void stop() throws IOException {
+        releaseCurrentImage();
+    }
+
+    /**
+     * Like a frame grabber, the frame of the previous grab is reused. Hence its image is released only on the next grab.
+     */
+    private void releaseCurrentImage() {
+        if (currentImage != null && !currentImage.isNull()) {
+            cvReleaseImage(currentImage);
+        }
+        currentImage = null;
+    }
+
+    @Override
+    public String toString() {
+        return "images:" + imageDir.getPath();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2016 Erandi Ganepola
+ * <p>
+ * Permission is hereby granted, free of charge,
+ * to any person obtaining a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software,
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS",
+ * WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ueg.watchdog.core.source;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import ueg.watchdog.api.FrameSource;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays the video frames of a recorded video file. Audio frames are skipped.
+ *
+ * @author Erandi Ganepola
+ */
+public class VideoFileFrameSource implements FrameSource {
+
+    private final File videoFile;
+    private final FFmpegFrameGrabber frameGrabber;
+
+    public VideoFileFrameSource(File videoFile) {
+        this.videoFile = videoFile;
+        frameGrabber = new FFmpegFrameGrabber(videoFile);
+    }
+
+    @Override
+    public void start() throws IOException {
+        frameGrabber.start();
+    }
+
+    @Override
+    public Frame grab() throws IOException {
+        return frameGrabber.grabImage();
+    }
+
+    @Override
+    public long getTimestamp() {
+        return frameGrabber.getTimestamp();
+    }
+
+    @Override
+    public double getFrameRate() {
+        return frameGrabber.getFrameRate();
+    }
+
+    @Override
+    public boolean isLive() {
+        return false;
+    }
+
+    @Override
+    public void stop() throws IOException {
+        frameGrabber.stop();
+        frameGrabber.release();
+    }
+
+    @Override
+    public String toString() {
+        return "file:" + videoFile.getPath();
+    }
+}
@@ -104,6 +104,30 @@ public class ProcessedFrameStat {
         return true;
     }
 
+    /**
+     * Deletes the stats of a video from the given time onwards, like the ones of a part of the video to be processed
+     * again.
+     *
+     * @return false if the stats couldn't be deleted
+     */
+    public static boolean deleteStats(int videoId, LocalDateTime from) {
+        String query = "DELETE FROM `" + TABLE + "` WHERE video_id=? AND occurred_timestamp>=?";
+        Connection connection = DbConnect.getDBConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(query);
+            statement.setInt(1, videoId);
+            statement.setTimestamp(2, WatchDogUtils.toMySQLDate(from));
+            int deleted = statement.executeUpdate();
+            logger.debug("Deleted {} stats of video {} from {}", deleted, videoId, from);
+        } catch (Exception e) {
+            logger.error("Error occurred when deleting the stats of video : {}", videoId, e);
+            return false;
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+        return true;
+    }
+
     public int getId() {
         return id;
     }
@@ -112,6 +136,10 @@ public class ProcessedFrameStat {
         return videoId;
     }
 
+    public void setVideoId(int videoId) {
+        this.videoId = videoId;
+    }
+
     public LocalDateTime getTimestamp() {
         return timestamp;
     }
@@ -3,6 +3,7 @@ package ueg.watchdog.model;
 import org.apache.commons.dbutils.DbUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ueg.watchdog.Constants;
 import ueg.watchdog.database.DbConnect;
 import ueg.watchdog.util.ImageUtils;
 
@@ -10,9 +11,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -24,6 +30,11 @@ public class Profile {
 
     private static final Logger logger = LoggerFactory.getLogger(Profile.class);
 
+    /**
+     * Profiles of the recognized people, with the time they were loaded at
+     */
+    private static final Map<Integer, CachedProfile> cache = new ConcurrentHashMap<>();
+
     private int id;
     private String personalId;
     private String firstName;
@@ -115,6 +126,21 @@ public class Profile {
         return occurrences;
     }
 
+    /**
+     * @return age in years as of today, or null if the date of birth is unknown
+     */
+    public Integer getAge() {
+        if (dob == null) {
+            return null;
+        }
+        try {
+            return Period.between(LocalDate.parse(dob), LocalDate.now()).getYears();
+        } catch (DateTimeParseException e) {
+            logger.warn("Invalid date of birth {} of profile {}", dob, id);
+            return null;
+        }
+    }
+
     /**
      * Saves a given Profile into the database. Returns the success status of
      * the operation
@@ -207,6 +233,7 @@ public class Profile {
 
             DbUtils.commitAndCloseQuietly(conn);
             DbUtils.closeQuietly(pst);
+            cache.remove(id);
             return true;
         } catch (Exception e) {
             DbUtils.rollbackAndCloseQuietly(conn);
@@ -233,6 +260,22 @@ public class Profile {
         return null;
     }
 
+    /**
+     * Returns the profile with the given id, loaded at most {@link Constants#PROFILE_CACHE_SECONDS} ago. Used for the
+     * people recognized in the videos, to not load the same profiles again for each face.
+     */
+    public static Profile getCachedProfileById(int id) {
+        CachedProfile cached = cache.get(id);
+        if (cached != null && System.currentTimeMillis() - cached.loadedAt < Constants.PROFILE_CACHE_SECONDS * 1000L) {
+            return cached.profile;
+        }
+        Profile profile = getProfileById(id);
+        if (profile != null) {
+            cache.put(id, new CachedProfile(profile));
+        }
+        return profile;
+    }
+
     public static ArrayList searchProfileByName(String name) {
         ArrayList<Profile> list = new ArrayList<Profile>();
         Connection conn = DbConnect.getDBConnection();
@@ -261,6 +304,7 @@ public class Profile {
             pst.setInt(1, id);
             pst.execute();
             conn.close();
+            cache.remove(id);
             return true;
         } catch (SQLException ex) {
             logger.error("Error when deleting profile with id : {}", id, ex);
@@ -282,4 +326,14 @@ public class Profile {
         profile.setOccurrences(resultSet.getString("last_occurence"));
         return profile;
     }
+
+    private static class CachedProfile {
+
+        private final Profile profile;
+        private final long loadedAt = System.currentTimeMillis();
+
+        private CachedProfile(Profile profile) {
+            this.profile = profile;
+        }
+    }
 }
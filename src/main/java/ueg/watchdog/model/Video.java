@@ -32,6 +32,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -54,6 +55,7 @@ public class Video {
     private LocalDateTime from;
     private LocalDateTime to;
     private boolean deleted;
+    private int attempts;
 
     public Video(String fileName, String filePath, boolean processed, LocalDateTime from, LocalDateTime to) {
         this(0, fileName, filePath, processed, from, to, false);
@@ -100,6 +102,13 @@ public class Video {
         return deleted;
     }
 
+    /**
+     * @return number of times the video was claimed to be processed, including the current claim
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
     public boolean exists() {
         File videoFile = new File(filePath);
         return videoFile.exists() && videoFile.isFile();
@@ -109,19 +118,21 @@ public class Video {
         String query = "INSERT INTO `" + TABLE + "` (file_name,processed,file_path,start_time,end_time,deleted) VALUES(?,?,?,?,?,?)";
         Connection connection = DbConnect.getDBConnection();
         try {
-            PreparedStatement statement = connection.prepareStatement(query);
+            // The generated id is read from the statement itself, as other feeds may be saving videos at the same time
+            PreparedStatement statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
             statement.setString(1, getFileName());
             statement.setBoolean(2, isProcessed());
             statement.setString(3, getFilePath());
             statement.setTimestamp(4, WatchDogUtils.toMySQLDate(getFrom()));
             statement.setTimestamp(5, WatchDogUtils.toMySQLDate(getTo()));
             statement.setBoolean(6, false);
-            statement.execute();
-            String fetchIdQuery = "SELECT `id` FROM `" + TABLE + "` ORDER BY `id`  DESC LIMIT 1";
-            PreparedStatement fetchIdStatement = connection.prepareStatement(fetchIdQuery);
-            ResultSet resultSet = fetchIdStatement.executeQuery();
-            resultSet.first();
-            this.id = resultSet.getInt("id");
+            statement.executeUpdate();
+            ResultSet resultSet = statement.getGeneratedKeys();
+            if (!resultSet.next()) {
+                logger.error("No id generated for video ({},{})", getFileName(), getFilePath());
+                return false;
+            }
+            this.id = resultSet.getInt(1);
         } catch (SQLException e) {
             logger.error("Error occurred when saving video ({},{}) details to DB", getFileName(), getFilePath(), e);
             return false;
@@ -131,13 +142,21 @@ public class Video {
         return true;
     }
 
-    public boolean markProcessed(boolean processed) {
-        String query = "UPDATE `" + TABLE + "` SET processed=? WHERE id=?";
+    /**
+     * Marks a claimed video and releases its claim.
+     *
+     * @param owner id of the worker which claimed the video
+     * @return false if the video is no longer claimed by the given worker, having lost its lease
+     */
+    public boolean markProcessed(String owner, boolean processed) {
+        String query = "UPDATE `" + TABLE + "` SET processed=?, claimed_by=NULL, lease_expires=NULL " +
+                "WHERE id=? AND claimed_by=?";
         Connection connection = DbConnect.getDBConnection();
         try {
             PreparedStatement statement = connection.prepareStatement(query);
             statement.setBoolean(1, processed);
             statement.setInt(2, getId());
+            statement.setString(3, owner);
             if (statement.executeUpdate() > 0) {
                 this.processed = processed;
                 return true;
@@ -151,6 +170,56 @@ public class Video {
         return false;
     }
 
+    /**
+     * Extends the lease of a claimed video, so that it isn't claimed by another processor.
+     *
+     * @param owner        owner of the claim
+     * @param leaseSeconds seconds from now the lease expires at
+     * @return false if the video is not claimed by the owner anymore
+     */
+    public boolean renewLease(String owner, int leaseSeconds) {
+        String query = "UPDATE `" + TABLE + "` SET lease_expires=DATE_ADD(NOW(), INTERVAL ? SECOND) " +
+                "WHERE id=? AND claimed_by=? AND processed=0";
+        Connection connection = DbConnect.getDBConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(query);
+            statement.setInt(1, leaseSeconds);
+            statement.setInt(2, getId());
+            statement.setString(3, owner);
+            return statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            logger.error("Error occurred when renewing the lease of video ({},{})", getFileName(), getFilePath(), e);
+            return false;
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Gives up a claim before its lease expires, so that the video can be claimed again right away.
+     *
+     * @param owner  owner of the claim
+     * @param failed if false, the claim is not counted as an attempt, like when processing is stopped
+     * @return true if the claim was released
+     */
+    public boolean releaseClaim(String owner, boolean failed) {
+        String query = "UPDATE `" + TABLE + "` SET claimed_by=NULL, lease_expires=NULL, attempts=attempts-? " +
+                "WHERE id=? AND claimed_by=?";
+        Connection connection = DbConnect.getDBConnection();
+        try {
+            PreparedStatement statement = connection.prepareStatement(query);
+            statement.setInt(1, failed ? 0 : 1);
+            statement.setInt(2, getId());
+            statement.setString(3, owner);
+            return statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            logger.error("Error occurred when releasing the claim of video ({},{})", getFileName(), getFilePath(), e);
+            return false;
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
     public boolean softDelete() {
         String query = "UPDATE `" + TABLE + "`SET deleted=? WHERE id=?";
         Connection connection = DbConnect.getDBConnection();
@@ -225,21 +294,63 @@ public class Video {
         return videos;
     }
 
+    /**
+     * Claims the oldest unprocessed video which is not claimed, or whose lease has expired. The claim is made by a
+     * single update, hence a video is claimed by only one of the processors sharing the database.
+     *
+     * @param owner        unique id of the claimer, holding at most one claim at a time
+     * @param leaseSeconds seconds from now the claim expires at, unless renewed
+     * @param maxAttempts  videos already claimed this many times are not claimed again
+     * @return claimed video, or null if there is none to be processed
+     */
+    public static Video claimNext(String owner, int leaseSeconds, int maxAttempts) {
+        String claimQuery = "UPDATE `" + TABLE + "` SET claimed_by=?, lease_expires=DATE_ADD(NOW(), INTERVAL ? SECOND), " +
+                "attempts=attempts+1 WHERE processed=0 AND deleted=0 AND attempts<? " +
+                "AND (lease_expires IS NULL OR lease_expires<NOW()) ORDER BY id LIMIT 1";
+        Connection connection = DbConnect.getDBConnection();
+        try {
+            PreparedStatement claimStatement = connection.prepareStatement(claimQuery);
+            claimStatement.setString(1, owner);
+            claimStatement.setInt(2, leaseSeconds);
+            claimStatement.setInt(3, maxAttempts);
+            if (claimStatement.executeUpdate() == 0) {
+                return null;
+            }
+
+            String fetchQuery = "SELECT * FROM `" + TABLE + "` WHERE claimed_by=? AND processed=0 ORDER BY id LIMIT 1";
+            PreparedStatement fetchStatement = connection.prepareStatement(fetchQuery);
+            fetchStatement.setString(1, owner);
+            ResultSet resultSet = fetchStatement.executeQuery();
+            return resultSet.next() ? loadData(resultSet) : null;
+        } catch (SQLException e) {
+            logger.error("Error occurred when claiming a video to be processed", e);
+            return null;
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
     public static Video createVideo(String fileName, String filePath) {
+        return createVideo(fileName, filePath, false);
+    }
+
+    public static Video createVideo(String fileName, String filePath, boolean processed) {
         String withoutExtension = fileName.substring(0, fileName.lastIndexOf("."));
         String timestamps[] = withoutExtension.split("-");
         LocalDateTime from = WatchDogUtils.getLocalDateTime(timestamps[0]);
         LocalDateTime to = WatchDogUtils.getLocalDateTime(timestamps[1]);
-        return new Video(fileName, filePath, false, from, to);
+        return new Video(fileName, filePath, processed, from, to);
     }
 
     private static Video loadData(ResultSet resultSet) throws SQLException {
-        return new Video(resultSet.getInt("id"),
+        Video video = new Video(resultSet.getInt("id"),
                 resultSet.getString("file_name"),
                 resultSet.getString("file_path"),
                 resultSet.getBoolean("processed"),
                 WatchDogUtils.fromMySQLDate(resultSet.getTimestamp("start_time")),
                 WatchDogUtils.fromMySQLDate(resultSet.getTimestamp("end_time")),
                 resultSet.getBoolean("deleted"));
+        video.attempts = resultSet.getInt("attempts");
+        return video;
     }
 }
@@ -29,15 +29,19 @@ public class SettingsHandler {
         OperatingMode operatingMode = wdc.getOperatingMode();
         String storagePath = wdc.getStoragePath();
         String compressionMode = wdc.getCompressionMode();
+        EncoderProfile recordingEncoderProfile = wdc.getRecordingEncoderProfile();
+        EncoderProfile processingEncoderProfile = wdc.getProcessingEncoderProfile();
 
         try {
             Connection conn = DbConnect.getDBConnection();
 
-            PreparedStatement pst = conn.prepareStatement("UPDATE `config` SET `operating_mode`=?,`storage_location`=?, `compression_mode`=? WHERE `id`=?");
+            PreparedStatement pst = conn.prepareStatement("UPDATE `config` SET `operating_mode`=?,`storage_location`=?, `compression_mode`=?, `recording_encoder_profile`=?, `processing_encoder_profile`=? WHERE `id`=?");
             pst.setInt(1, operatingMode.ordinal());
             pst.setString(2, storagePath);
             pst.setString(3, compressionMode);
-            pst.setInt(4, configId);
+            pst.setString(4, recordingEncoderProfile.name());
+            pst.setString(5, processingEncoderProfile.name());
+            pst.setInt(6, configId);
             pst.executeUpdate();
 
             conn.close();
@@ -52,7 +56,7 @@ public class SettingsHandler {
         WatchDogContext wdc = WatchDogContext.getInstance();
         try {
             Connection conn = DbConnect.getDBConnection();
-            PreparedStatement pst = conn.prepareStatement("SELECT `operating_mode`, `storage_location`, `compression_mode` FROM `config` WHERE `id`=?;");
+            PreparedStatement pst = conn.prepareStatement("SELECT `operating_mode`, `storage_location`, `compression_mode`, `recording_encoder_profile`, `processing_encoder_profile` FROM `config` WHERE `id`=?;");
             pst.setInt(1, configId);
             ResultSet rs = pst.executeQuery();
 
@@ -60,6 +64,13 @@ public class SettingsHandler {
                 wdc.setOperatingMode(OperatingMode.values()[rs.getInt(1)]);
                 wdc.setStoragePath(rs.getString(2));
                 wdc.setCompressionMode(rs.getString(3));
+                // Stored by name, since more profiles may be added
+                if (rs.getString(4) != null) {
+                    wdc.setRecordingEncoderProfile(EncoderProfile.valueOf(rs.getString(4)));
+                }
+                if (rs.getString(5) != null) {
+                    wdc.setProcessingEncoderProfile(EncoderProfile.valueOf(rs.getString(5)));
+                }
             }
             conn.close();
             return wdc;
@@ -22,8 +22,11 @@
 
 package ueg.watchdog.util;
 
+import org.bytedeco.javacv.FrameRecorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ueg.watchdog.core.configuration.WatchDogContext;
+import ueg.watchdog.core.configuration.WatchDogContext.EncoderProfile;
 
 import java.io.File;
 import java.io.IOException;
@@ -65,7 +68,10 @@ public final class WatchDogUtils {
     }
 
     public static String getTimestampedVideoFileName() {
-        LocalDateTime dateTime = LocalDateTime.now();
+        return getTimestampedVideoFileName(LocalDateTime.now());
+    }
+
+    public static String getTimestampedVideoFileName(LocalDateTime dateTime) {
         return Timestamp.valueOf(dateTime).toString().split(" ")[1];
     }
 
@@ -83,11 +89,22 @@ public final class WatchDogUtils {
     }
 
     public static String finalizeVideo(String videoPath) {
+        return finalizeVideo(videoPath, LocalDateTime.now());
+    }
+
+    /**
+     * Renames a recorded video to include the time its recording ended.
+     *
+     * @param videoPath path of the recorded video
+     * @param endTime   time the recording ended
+     * @return new file name of the video, or null if renaming failed
+     */
+    public static String finalizeVideo(String videoPath, LocalDateTime endTime) {
         File file = new File(videoPath);
 
         String extension = videoPath.substring(videoPath.lastIndexOf("."));
         String filePath = videoPath.substring(0, videoPath.lastIndexOf("."));
-        String newFilePath = filePath + "-" + getTimestampedVideoFileName() + extension;
+        String newFilePath = filePath + "-" + getTimestampedVideoFileName(endTime) + extension;
 
         try {
             Files.move(file.toPath(), new File(newFilePath).toPath());
@@ -97,4 +114,32 @@ public final class WatchDogUtils {
         }
         return newFilePath.substring(newFilePath.lastIndexOf(SEPARATOR) + 1);
     }
+
+    /**
+     * Sets the encoding of the videos written by a recorder, before starting it.
+     *
+     * @param recorder recorder to be configured
+     * @param context  WatchDog context, for the codec, format, frame rate and compression mode
+     * @param profile  rate control, key frame interval and threading of the encoder
+     */
+    public static void configureRecorder(FrameRecorder recorder, WatchDogContext context, EncoderProfile profile) {
+        recorder.setVideoOption("preset", context.getCompressionMode());
+        recorder.setVideoCodec(context.getVideoCodec());
+        recorder.setFormat(context.getVideoFormat());
+        recorder.setFrameRate(context.getFrameRate());
+
+        int crf = profile.getCrf(context);
+        if (crf >= 0) {
+            recorder.setVideoOption("crf", String.valueOf(crf));
+        } else {
+            recorder.setVideoBitrate(context.getVideoBitRate());
+        }
+        recorder.setGopSize(Math.max(1, (int) Math.round(profile.getKeyFrameIntervalSeconds() * context.getFrameRate())));
+        if (profile.getThreads() > 0) {
+            recorder.setVideoOption("threads", String.valueOf(profile.getThreads()));
+        }
+        if (profile.getTune() != null) {
+            recorder.setVideoOption("tune", profile.getTune());
+        }
+    }
 }
@@ -0,0 +1,5 @@
+-- Encoder profiles of the recorded and the processed videos, stored by name.
+
+ALTER TABLE `config`
+  ADD COLUMN `recording_encoder_profile` VARCHAR(32) NULL DEFAULT NULL,
+  ADD COLUMN `processing_encoder_profile` VARCHAR(32) NULL DEFAULT NULL;
@@ -0,0 +1,9 @@
+-- Turns the video table in to a job queue for the video processors.
+-- A processor claims a video by setting claimed_by and lease_expires, and keeps extending the lease while processing
+-- it. A video with an expired lease is claimed again, up to a maximum number of attempts.
+
+ALTER TABLE `video`
+  ADD COLUMN `claimed_by` VARCHAR(64) NULL DEFAULT NULL,
+  ADD COLUMN `lease_expires` DATETIME NULL DEFAULT NULL,
+  ADD COLUMN `attempts` INT NOT NULL DEFAULT 0,
+  ADD INDEX `video_queue` (`processed`, `deleted`, `id`);
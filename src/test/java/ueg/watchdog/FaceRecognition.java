@@ -23,7 +23,6 @@ package ueg.watchdog;/*
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
-import ueg.watchdog.Constants;
 import ueg.watchdog.api.FaceDetector;
 import ueg.watchdog.api.FrameData;
 import ueg.watchdog.api.PersonRecognizer;
@@ -33,7 +32,7 @@ import ueg.watchdog.core.processing.face.HaarFaceDetector;
 public class FaceRecognition {
 
     public static void main(String[] args) throws FrameGrabber.Exception {
-        PersonRecognizer personRecognizer = new FisherFacesPersonRecognizer(Constants.PROFILE_PICTURE_DIR);
+        PersonRecognizer personRecognizer = FisherFacesPersonRecognizer.getInstance();
         FaceDetector faceDetector = new HaarFaceDetector();
 
         FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber("/dev/video1");